@@ -0,0 +1,157 @@
+package cn.qiang.zhang.randomlabel;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+import android.view.Gravity;
+import android.view.View;
+import android.widget.FrameLayout;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Locale;
+
+import cn.qiang.zhang.library.LabelPalette;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 内存基准：分别测量三种方式下每个标签的保留堆大小
+ * <ul>
+ * <li>数据：只有{@link LabelData}；</li>
+ * <li>虚拟化：{@link LabelManager}虚拟化模式，只有屏幕范围内的标签生成视图；</li>
+ * <li>视图：{@link LabelManager}默认模式，每个标签一个视图。</li>
+ * </ul>
+ * 标签容器按真实尺寸测量和布局，放在屏幕大小的根布局中，根布局之外的部分不可见。
+ * 保留堆按多次GC之后已使用堆的差值计算，标签对象在测量期间一直被引用。
+ */
+@RunWith(AndroidJUnit4.class)
+public class MemoryBenchmark {
+    private static final String TAG = "MemoryBenchmark";
+    /** 数据和虚拟化模式的标签数量 */
+    private static final int DATA_COUNT = 100000;
+    /** 视图模式的标签数量，更多会耗尽测试进程的堆 */
+    private static final int VIEW_COUNT = 1000;
+    private static final int MB = 1024 * 1024;
+    /** 10万个标签的数据不超过这个大小 */
+    private static final long DATA_BUDGET_BYTES = 6L * MB;
+    /** 10万个标签的虚拟化模式不超过这个大小，包括空间索引和屏幕范围内的视图 */
+    private static final long VIRTUAL_BUDGET_BYTES = 9L * MB;
+    /** 虚拟化模式下生成的视图不超过这个数量 */
+    private static final int VIRTUAL_VIEW_LIMIT = 1000;
+    /** 视图模式下每个标签不超过这个大小 */
+    private static final long VIEW_BUDGET_BYTES = 8 * 1024;
+
+    /** 屏幕大小 */
+    private static final int SCREEN_WIDTH = 1080;
+    private static final int SCREEN_HEIGHT = 1920;
+    /** 标签容器的高度，10万个标签大致铺满一层，屏幕范围内约有几百个标签 */
+    private static final int CONTENT_HEIGHT = 500000;
+
+    /** 测量期间保持引用 */
+    private Object retained;
+
+    @Test
+    public void dataOnly() {
+        long before = usedHeap();
+        LabelData data = new LabelData();
+        LabelPalette palette = LabelPalette.DEFAULT;
+        for (int i = 0; i < DATA_COUNT; i++) {
+            int style = i % palette.size();
+            data.add("标签" + i, i % 1000, i / 1000 * 40, 120, 40, style, palette.colorAt(style),
+                     12);
+        }
+        retained = data;
+        long bytes = usedHeap() - before;
+        report("data", bytes, DATA_COUNT);
+        Log.i(TAG, "data estimated " + data.getRetainedBytes() + " bytes");
+        assertTrue("data " + bytes + " bytes", bytes < DATA_BUDGET_BYTES);
+    }
+
+    @Test
+    public void virtualized() {
+        final long[] bytes = new long[1];
+        final int[] views = new int[1];
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                LabelManager manager = newManager();
+                manager.setVirtualized(true);
+                bytes[0] = measure(manager, DATA_COUNT);
+                views[0] = manager.getViewCount();
+            }
+        });
+        report("virtualized", bytes[0], DATA_COUNT);
+        Log.i(TAG, "virtualized " + views[0] + " views");
+        assertTrue("virtualized " + bytes[0] + " bytes", bytes[0] < VIRTUAL_BUDGET_BYTES);
+        assertTrue("virtualized " + views[0] + " views",
+                   views[0] > 0 && views[0] < VIRTUAL_VIEW_LIMIT);
+    }
+
+    @Test
+    public void views() {
+        final long[] bytes = new long[1];
+        final int[] views = new int[1];
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                LabelManager manager = newManager();
+                bytes[0] = measure(manager, VIEW_COUNT);
+                views[0] = manager.getViewCount();
+            }
+        });
+        report("views", bytes[0], VIEW_COUNT);
+        assertEquals(VIEW_COUNT, views[0]);
+        assertTrue("views " + bytes[0] + " bytes", bytes[0] < VIEW_COUNT * VIEW_BUDGET_BYTES);
+    }
+
+    /**
+     * 创建一个不在窗口中的标签管理：屏幕大小的根布局中放一个很高的标签容器，
+     * 占位视图在容器中央，标签分布在它四周的整个容器中
+     */
+    private static LabelManager newManager() {
+        Context context = InstrumentationRegistry.getTargetContext();
+        FrameLayout screen = new FrameLayout(context);
+        FrameLayout parent = new FrameLayout(context);
+        screen.addView(parent, new FrameLayout.LayoutParams(SCREEN_WIDTH, CONTENT_HEIGHT));
+        // 标签添加到目标视图所在的容器中，目标视图铺满父布局
+        View target = new View(context);
+        parent.addView(target, new FrameLayout.LayoutParams(
+                FrameLayout.LayoutParams.MATCH_PARENT, FrameLayout.LayoutParams.MATCH_PARENT));
+        View holder = new View(context);
+        parent.addView(holder, new FrameLayout.LayoutParams(SCREEN_WIDTH / 4, SCREEN_WIDTH / 4,
+                                                            Gravity.CENTER));
+        LabelManager manager = LabelManager.create(target, "基准");
+        screen.measure(View.MeasureSpec.makeMeasureSpec(SCREEN_WIDTH, View.MeasureSpec.EXACTLY),
+                       View.MeasureSpec.makeMeasureSpec(SCREEN_HEIGHT, View.MeasureSpec.EXACTLY));
+        screen.layout(0, 0, SCREEN_WIDTH, SCREEN_HEIGHT);
+        manager.setPlaceHolder(parent, holder);
+        return manager;
+    }
+
+    private long measure(LabelManager manager, int count) {
+        long before = usedHeap();
+        for (int i = 0; i < count; i++) {
+            manager.addLabel("标签" + i);
+        }
+        retained = manager;
+        return usedHeap() - before;
+    }
+
+    private static void report(String mode, long bytes, int count) {
+        Log.i(TAG, String.format(Locale.US, "%s: %d labels, %.2f MB, %d bytes/label", mode,
+                                 count, bytes / (double) MB, bytes / count));
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            runtime.gc();
+            System.runFinalization();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,92 @@
+package cn.qiang.zhang.randomlabel;
+
+import android.content.Context;
+import android.graphics.Paint;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.text.TextPaint;
+import android.util.DisplayMetrics;
+import android.util.Log;
+import android.util.TypedValue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 词云布局基准：2000个按权重缩放的标签，测量尺寸与{@link LabelManager#addWordCloud}一致，
+ * 布局区域按屏幕宽高比取标签总面积的两倍。
+ */
+@RunWith(AndroidJUnit4.class)
+public class WordCloudBenchmark {
+    private static final String TAG = "WordCloudBenchmark";
+    private static final int COUNT = 2000;
+    private static final int WARM_UP = 3;
+    private static final int RUNS = 10;
+    private static final long BUDGET_MILLIS = 100;
+
+    @Test
+    public void layout2000WeightedLabels() throws Exception {
+        Context context = InstrumentationRegistry.getTargetContext();
+        DisplayMetrics metrics = context.getResources().getDisplayMetrics();
+        Random random = new Random(1);
+        TextPaint paint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+        int padding = (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, 5, metrics);
+        int[] widths = new int[COUNT];
+        int[] heights = new int[COUNT];
+        long area = 0;
+        for (int i = 0; i < COUNT; i++) {
+            // 权重呈长尾分布，大部分标签字体较小
+            double weight = Math.pow(random.nextDouble(), 3);
+            float size = 10 + (float) (22 * weight);
+            paint.setTextSize(TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_SP, size, metrics));
+            Paint.FontMetricsInt fm = paint.getFontMetricsInt();
+            widths[i] = (int) Math.ceil(paint.measureText(word(random))) + padding * 2;
+            heights[i] = fm.bottom - fm.top;
+            area += (long) widths[i] * heights[i];
+        }
+        double ratio = (double) metrics.heightPixels / metrics.widthPixels;
+        int width = (int) Math.sqrt(area * 2 / ratio);
+        int height = (int) (width * ratio);
+        int cell = (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, 4, metrics);
+
+        int[] x = new int[COUNT];
+        int[] y = new int[COUNT];
+        long[] times = new long[RUNS];
+        int placedCount = 0;
+        for (int run = -WARM_UP; run < RUNS; run++) {
+            long start = System.nanoTime();
+            WordCloudLayout cloud = new WordCloudLayout(width, height, cell);
+            boolean[] placed = cloud.layout(widths, heights, COUNT, x, y);
+            long elapsed = System.nanoTime() - start;
+            if (run >= 0) {
+                times[run] = elapsed;
+            }
+            placedCount = 0;
+            for (boolean value : placed) {
+                if (value) {
+                    placedCount++;
+                }
+            }
+        }
+        Arrays.sort(times);
+        long median = times[RUNS / 2] / 1000000L;
+        Log.i(TAG, "area " + width + "x" + height + ", cell " + cell + "px, placed " + placedCount
+                + "/" + COUNT + ", median " + median + "ms, max " + times[RUNS - 1] / 1000000L
+                + "ms");
+        assertTrue("median " + median + "ms", median < BUDGET_MILLIS);
+        assertTrue("placed " + placedCount, placedCount > COUNT * 9 / 10);
+    }
+
+    private static String word(Random random) {
+        char[] chars = new char[3 + random.nextInt(8)];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = (char) ('a' + random.nextInt(26));
+        }
+        return new String(chars);
+    }
+}
@@ -1,5 +1,8 @@
 package cn.qiang.zhang.randomlabel;
 
+import android.os.Build;
+import android.os.Handler;
+import android.os.SystemClock;
 import android.support.v7.app.AppCompatActivity;
 import android.os.Bundle;
 import android.view.View;
@@ -7,16 +10,37 @@ import android.widget.Button;
 import android.widget.FrameLayout;
 import android.widget.ImageView;
 import android.widget.RelativeLayout;
+import android.widget.SeekBar;
 import android.widget.TextView;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
 import butterknife.BindView;
 import butterknife.ButterKnife;
 import butterknife.OnClick;
+import cn.qiang.zhang.library.LabelMetrics;
+import cn.qiang.zhang.library.LabelRegistry;
+import cn.qiang.zhang.library.LabelView;
 
 public class DemoActivity extends AppCompatActivity {
 
+    /*压力测试*/
+    /** 每档插入数量，1k到50k */
+    private static final int BURST_STEP = 1000;
+    /** 性能面板刷新间隔 */
+    private static final long HUD_INTERVAL = 500;
+    private static final int[] PERCENTILES = {50, 95, 99};
+    private static final int MB = 1024 * 1024;
+    /** 随机放置时数据流的预取数量 */
+    private static final int STREAM_PREFETCH = 500;
+
     @BindView(R.id.demo_tv_content)
     TextView tvStatus;
+    @BindView(R.id.demo_layout_canvas)
+    LabelCanvasLayout layoutCanvas;
     @BindView(R.id.demo_layout_label)
     FrameLayout layoutLabel;
     @BindView(R.id.demo_iv_placeholder)
@@ -25,50 +49,241 @@ public class DemoActivity extends AppCompatActivity {
     FrameLayout layoutPlaceHolder;
     @BindView(R.id.demo_btn_placeholder)
     Button btnPlaceHolder;
+    @BindView(R.id.demo_tv_hud)
+    TextView tvHud;
+    @BindView(R.id.demo_sb_burst)
+    SeekBar sbBurst;
+    @BindView(R.id.demo_btn_burst)
+    Button btnBurst;
+    @BindView(R.id.demo_btn_render)
+    Button btnRender;
+    @BindView(R.id.demo_btn_place)
+    Button btnPlace;
 
     @BindView(R.id.demo_layout_all)
     RelativeLayout layoutAll;
 
     LabelManager labelManager;
+    /** 演示页面所有标签管理共享的引擎 */
+    private LabelEngine labelEngine;
+
+    /** 帧耗时统计，低于Jelly Bean时为null */
+    private FrameMonitor frameMonitor;
+    private final float[] frameMillis = new float[PERCENTILES.length];
+    private final Handler handler = new Handler();
+    private final Random random = new Random();
+    private int burstSize = BURST_STEP;
+    private boolean virtualized;
+    private boolean wordCloud;
+    /** 已插入的压力测试标签数量，用于生成文字 */
+    private int stressCount;
+    /** 上一批插入的耗时，-1 表示进行中 */
+    private long burstMillis;
+    private final Runnable hudUpdater = new Runnable() {
+        @Override
+        public void run() {
+            updateHud();
+            handler.postDelayed(this, HUD_INTERVAL);
+        }
+    };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_demo);
         ButterKnife.bind(this);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            frameMonitor = new FrameMonitor();
+        }
+        btnBurst.setText(getString(R.string.stress_burst, burstSize));
+        sbBurst.setOnSeekBarChangeListener(new SeekBar.OnSeekBarChangeListener() {
+            @Override
+            public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
+                burstSize = (progress + 1) * BURST_STEP;
+                btnBurst.setText(getString(R.string.stress_burst, burstSize));
+            }
+
+            @Override
+            public void onStartTrackingTouch(SeekBar seekBar) {
+            }
+
+            @Override
+            public void onStopTrackingTouch(SeekBar seekBar) {
+            }
+        });
     }
 
     @Override
     protected void onResume() {
         super.onResume();
+        if (frameMonitor != null) {
+            frameMonitor.start();
+        }
+        handler.post(hudUpdater);
+    }
 
+    @Override
+    protected void onPause() {
+        super.onPause();
+        if (frameMonitor != null) {
+            frameMonitor.stop();
+        }
+        handler.removeCallbacks(hudUpdater);
     }
 
     @OnClick({R.id.demo_btn_placeholder, R.id.demo_iv_placeholder})
     void addLabel(View view) {
         if (view.equals(ivPlaceHolder)) {
             if (labelManager != null) {
-                labelManager.clear();
+                labelManager.clear(true);
                 return;
             }
         }
         addRandom();
     }
 
+    @OnClick(R.id.demo_btn_burst)
+    void burst() {
+        ensureManager();
+        // 压力测试不受饱和比例限制
+        labelManager.setSaturation(Float.MAX_VALUE);
+        resetFrames();
+        final int count = burstSize;
+        final long start = SystemClock.uptimeMillis();
+        burstMillis = -1;
+        if (wordCloud) {
+            List<String> messages = new ArrayList<>(count);
+            float[] weights = new float[count];
+            for (int i = 0; i < count; i++) {
+                messages.add("标签" + stressCount++);
+                // 长尾分布，少数标签权重很大
+                weights[i] = (float) Math.pow(random.nextFloat(), 3);
+            }
+            int placed = labelManager.addWordCloud(messages, weights, false);
+            burstMillis = SystemClock.uptimeMillis() - start;
+            tvStatus.setText(String.format(Locale.US, "word cloud %d/%d placed", placed, count));
+            return;
+        }
+        // 随机放置通过数据流逐帧添加，每帧只占用时间预算
+        labelManager.stream(new StressSource(count), STREAM_PREFETCH, new LabelStream.Listener() {
+            @Override
+            public void onComplete(boolean saturated) {
+                burstMillis = SystemClock.uptimeMillis() - start;
+            }
 
+            @Override
+            public void onError(Throwable error) {
+                tvStatus.setText(error.toString());
+            }
+        });
+    }
 
-    public void addRandom() {
+    @OnClick(R.id.demo_btn_render)
+    void toggleRender() {
+        virtualized = !virtualized;
+        btnRender.setText(virtualized ? R.string.stress_render_virtual
+                                  : R.string.stress_render_views);
+        if (labelManager != null) {
+            // 切换模式会清除所有标签
+            labelManager.setVirtualized(virtualized);
+        }
+        resetFrames();
+    }
 
-        if (labelManager == null) {
+    @OnClick(R.id.demo_btn_place)
+    void togglePlacement() {
+        wordCloud = !wordCloud;
+        btnPlace.setText(wordCloud ? R.string.stress_place_cloud : R.string.stress_place_random);
+    }
 
-            labelManager = LabelManager.create(layoutLabel, "已认证");
-            labelManager.setPlaceHolder(layoutAll, ivPlaceHolder);
-            labelManager.addPlaceHolder(layoutPlaceHolder);
-            for (int i = 0; i < 10; i++) {
-                labelManager.addLabel("序列" + i);
-            }
+    private void resetFrames() {
+        if (frameMonitor != null) {
+            frameMonitor.reset();
+        }
+        LabelMetrics.reset();
+    }
 
+    private void updateHud() {
+        StringBuilder sb = new StringBuilder();
+        if (frameMonitor != null) {
+            frameMonitor.percentiles(PERCENTILES, frameMillis);
+            sb.append(String.format(Locale.US, "frame p50 %.1f p95 %.1f p99 %.1f ms (%d)",
+                                    frameMillis[0], frameMillis[1], frameMillis[2],
+                                    frameMonitor.getCount()));
+        } else {
+            sb.append(getString(R.string.stress_frames_unsupported));
+        }
+        int labels = labelManager != null ? labelManager.getLabelCount() : 0;
+        int views = labelManager != null ? labelManager.getViewCount() : 0;
+        sb.append(String.format(Locale.US, "\nlabels %d views %d %s", labels, views,
+                                virtualized ? "virtual" : "views"));
+        Runtime runtime = Runtime.getRuntime();
+        long used = runtime.totalMemory() - runtime.freeMemory();
+        sb.append(String.format(Locale.US, "\nheap %d/%d MB", used / MB,
+                                runtime.maxMemory() / MB));
+        sb.append(String.format(Locale.US, "\ncreated %d rebind %d",
+                                LabelMetrics.getViewsCreated(), LabelMetrics.getRebinds()));
+        sb.append(String.format(Locale.US, "\nfit %d/%d shadow %d/%d",
+                                LabelMetrics.getFitHits(), LabelMetrics.getFitMisses(),
+                                LabelMetrics.getShadowHits(), LabelMetrics.getShadowMisses()));
+        LabelRegistry registry = LabelRegistry.get(this);
+        sb.append(String.format(Locale.US, "\nregistry live %d pooled %d pending %d",
+                                registry.getLiveCount(), registry.getPooledCount(),
+                                labelEngine != null ? labelEngine.getPendingCount() : 0));
+        sb.append(String.format(Locale.US, "\n%s burst %s", wordCloud ? "cloud" : "random",
+                                burstMillis < 0 ? "..." : burstMillis + " ms"));
+        tvHud.setText(sb);
+    }
+
+    private void ensureManager() {
+        if (labelManager != null) {
+            return;
+        }
+        if (labelEngine == null) {
+            labelEngine = new LabelEngine(this);
+        }
+        labelManager = LabelManager.create(layoutLabel, "已认证");
+        labelManager.attachEngine(labelEngine);
+        labelManager.setPlaceHolder(layoutAll, ivPlaceHolder);
+        labelManager.addPlaceHolder(layoutPlaceHolder);
+        labelManager.attachCanvas(layoutCanvas);
+        labelManager.setShadow(LabelView.SHADOW.BAKED);
+        labelManager.setVirtualized(virtualized);
+        labelManager.setOnLabelClickListener(new LabelManager.OnLabelClickListener() {
+            @Override
+            public void onLabelClick(LabelManager manager, int index, String message) {
+                tvStatus.setText(message);
+            }
+        });
+        List<String> messages = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            messages.add("序列" + i);
         }
+        labelManager.enqueueLabels(messages, true);
+    }
+
+    public void addRandom() {
+        ensureManager();
         labelManager.addLabel("随机" + (int) (10 + 99 * Math.random()));
     }
+
+    /** 压力测试的数据源，同步生成指定数量的标签 */
+    private final class StressSource implements LabelSource {
+        private int remaining;
+
+        StressSource(int count) {
+            this.remaining = count;
+        }
+
+        @Override
+        public void request(int count, Callback callback) {
+            int n = Math.min(count, remaining);
+            List<String> messages = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                messages.add("标签" + stressCount++);
+            }
+            remaining -= n;
+            callback.onLoaded(messages, remaining > 0);
+        }
+    }
 }
@@ -0,0 +1,84 @@
+package cn.qiang.zhang.randomlabel;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.view.Choreographer;
+
+import java.util.Arrays;
+
+/**
+ * 帧耗时统计
+ * <p>
+ * 每一帧都注册{@link Choreographer}回调，记录相邻两次vsync回调的间隔，保留最近一段窗口，
+ * 按需计算分位数。需要Jelly Bean及以上，调用方需要先判断版本再创建。
+ */
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+final class FrameMonitor implements Choreographer.FrameCallback {
+    /** 统计窗口的帧数，60Hz下约4秒 */
+    private static final int WINDOW = 240;
+
+    private final long[] durations = new long[WINDOW];
+    /** 计算分位数时使用的副本 */
+    private final long[] sorted = new long[WINDOW];
+    private int count;
+    private int next;
+    private long lastFrameNanos;
+    private boolean running;
+
+    void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        lastFrameNanos = 0;
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    void stop() {
+        running = false;
+        Choreographer.getInstance().removeFrameCallback(this);
+    }
+
+    /** 清空窗口，例如切换模式之后 */
+    void reset() {
+        count = 0;
+        next = 0;
+        lastFrameNanos = 0;
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if (lastFrameNanos != 0) {
+            durations[next] = frameTimeNanos - lastFrameNanos;
+            next = (next + 1) % WINDOW;
+            count = Math.min(count + 1, WINDOW);
+        }
+        lastFrameNanos = frameTimeNanos;
+        if (running) {
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    }
+
+    int getCount() {
+        return count;
+    }
+
+    /**
+     * 计算窗口内帧耗时的分位数
+     * @param percentiles 分位，0到100
+     * @param outMillis   输出的毫秒数，窗口为空时为0
+     */
+    void percentiles(int[] percentiles, float[] outMillis) {
+        System.arraycopy(durations, 0, sorted, 0, count);
+        Arrays.sort(sorted, 0, count);
+        for (int i = 0; i < percentiles.length; i++) {
+            if (count == 0) {
+                outMillis[i] = 0;
+                continue;
+            }
+            int index = Math.min(count - 1, (int) Math.ceil(count * percentiles[i] / 100.0) - 1);
+            outMillis[i] = sorted[Math.max(0, index)] / 1000000f;
+        }
+    }
+
+}
@@ -0,0 +1,54 @@
+package cn.qiang.zhang.randomlabel;
+
+import java.util.Arrays;
+
+/**
+ * 可增长的int列表，避免装箱，用于存放标签下标
+ */
+final class IntList {
+    private int[] values;
+    private int size;
+
+    IntList() {
+        this(8);
+    }
+
+    IntList(int capacity) {
+        values = new int[capacity];
+    }
+
+    void add(int value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, Math.max(8, size * 2));
+        }
+        values[size++] = value;
+    }
+
+    int get(int index) {
+        return values[index];
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    /** 移除指定的值，不保证顺序 */
+    boolean removeValue(int value) {
+        for (int i = 0; i < size; i++) {
+            if (values[i] == value) {
+                values[i] = values[--size];
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
@@ -0,0 +1,288 @@
+package cn.qiang.zhang.randomlabel;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.util.AttributeSet;
+import android.view.GestureDetector;
+import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
+import android.view.View;
+import android.view.ViewParent;
+import android.widget.FrameLayout;
+
+/**
+ * 可缩放、可平移的标签画布
+ * <p>
+ * 缩放和平移只作用于绘制时的画布矩阵，不会改变子视图的布局参数，因此缩放过程中不会触发重新布局。
+ * 缩放比例低于阈值时，由{@link LevelOfDetail}绘制简化的色点或圆角矩形，不再进行文字排版。
+ */
+public class LabelCanvasLayout extends FrameLayout {
+
+    /** 细节层次：在缩放比例变化时决定标签以何种方式绘制 */
+    public interface LevelOfDetail {
+        /**
+         * 细节层次改变
+         * @param level {@link #LEVEL_DOT}、{@link #LEVEL_SHAPE}或{@link #LEVEL_TEXT}
+         */
+        void onLevelChanged(int level);
+
+        /**
+         * 绘制简化标签，此时画布已经变换到标签容器的坐标系
+         * @param canvas 画布
+         * @param level  细节层次
+         * @param scale  当前缩放比例
+         */
+        void drawSimplified(Canvas canvas, int level, float scale);
+
+        /** 标签所在的容器，需要是当前画布的子孙视图 */
+        View getLabelLayout();
+    }
+
+    /** 变换监听：缩放或平移之后回调，用于刷新可视范围 */
+    public interface OnTransformListener {
+        void onTransform(LabelCanvasLayout canvasLayout);
+    }
+
+    /** 只绘制色点 */
+    public static final int LEVEL_DOT = 0;
+    /** 绘制无文字的圆角矩形 */
+    public static final int LEVEL_SHAPE = 1;
+    /** 绘制完整标签 */
+    public static final int LEVEL_TEXT = 2;
+
+    private static final float DEFAULT_MIN_SCALE = 0.1f;
+    private static final float DEFAULT_MAX_SCALE = 4f;
+    private static final float DEFAULT_SHAPE_SCALE = 0.35f;
+    private static final float DEFAULT_TEXT_SCALE = 0.75f;
+
+    private final Matrix matrix = new Matrix();
+    private final Matrix inverse = new Matrix();
+    private final RectF mapped = new RectF();
+    private final ScaleGestureDetector scaleDetector;
+    private final GestureDetector gestureDetector;
+
+    private float scale = 1f;
+    private float translateX;
+    private float translateY;
+    private float minScale = DEFAULT_MIN_SCALE;
+    private float maxScale = DEFAULT_MAX_SCALE;
+    private float shapeScale = DEFAULT_SHAPE_SCALE;
+    private float textScale = DEFAULT_TEXT_SCALE;
+    private int level = LEVEL_TEXT;
+    /** 是否正在平移 */
+    private boolean panning;
+    /** 手势开始后是否已经取消子视图的触摸事件 */
+    private boolean childCanceled;
+
+    private LevelOfDetail levelOfDetail;
+    private OnTransformListener transformListener;
+
+    public LabelCanvasLayout(Context context) {
+        this(context, null);
+    }
+
+    public LabelCanvasLayout(Context context, AttributeSet attrs) {
+        this(context, attrs, 0);
+    }
+
+    public LabelCanvasLayout(Context context, AttributeSet attrs, int defStyleAttr) {
+        super(context, attrs, defStyleAttr);
+        setWillNotDraw(false);
+        scaleDetector = new ScaleGestureDetector(context, new ScaleGestureDetector
+                .SimpleOnScaleGestureListener() {
+            @Override
+            public boolean onScale(ScaleGestureDetector detector) {
+                zoomBy(detector.getScaleFactor(), detector.getFocusX(), detector.getFocusY());
+                return true;
+            }
+        });
+        gestureDetector = new GestureDetector(context, new GestureDetector.SimpleOnGestureListener() {
+            @Override
+            public boolean onDown(MotionEvent e) {
+                panning = false;
+                return true;
+            }
+
+            @Override
+            public boolean onScroll(MotionEvent e1, MotionEvent e2, float distanceX,
+                                    float distanceY) {
+                panning = true;
+                panBy(-distanceX, -distanceY);
+                return true;
+            }
+        });
+    }
+
+    public void setLevelOfDetail(LevelOfDetail levelOfDetail) {
+        this.levelOfDetail = levelOfDetail;
+        if (levelOfDetail != null) {
+            levelOfDetail.onLevelChanged(level);
+        }
+        invalidate();
+    }
+
+    public void setOnTransformListener(OnTransformListener transformListener) {
+        this.transformListener = transformListener;
+    }
+
+    /**
+     * 设置细节层次的阈值
+     * @param shapeScale 高于这个比例时绘制圆角矩形，否则绘制色点
+     * @param textScale  高于这个比例时绘制完整标签
+     */
+    public void setDetailScale(float shapeScale, float textScale) {
+        this.shapeScale = shapeScale;
+        this.textScale = Math.max(shapeScale, textScale);
+        updateLevel();
+        invalidate();
+    }
+
+    public void setScaleRange(float minScale, float maxScale) {
+        this.minScale = minScale;
+        this.maxScale = Math.max(minScale, maxScale);
+        zoomBy(1f, 0, 0);
+    }
+
+    public float getScale() {
+        return scale;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * 以焦点为中心缩放
+     * @param factor 缩放因子
+     * @param focusX 焦点横坐标
+     * @param focusY 焦点纵坐标
+     */
+    public void zoomBy(float factor, float focusX, float focusY) {
+        float target = Math.max(minScale, Math.min(maxScale, scale * factor));
+        factor = target / scale;
+        // 保持焦点下的内容不动
+        translateX = focusX - (focusX - translateX) * factor;
+        translateY = focusY - (focusY - translateY) * factor;
+        scale = target;
+        onTransformChanged();
+    }
+
+    public void panBy(float dx, float dy) {
+        translateX += dx;
+        translateY += dy;
+        onTransformChanged();
+    }
+
+    public void resetTransform() {
+        scale = 1f;
+        translateX = 0;
+        translateY = 0;
+        onTransformChanged();
+    }
+
+    /**
+     * 计算子孙视图在当前变换下的可视范围
+     * @param descendant 子孙视图
+     * @param out        以子孙视图为坐标系的可视范围
+     * @return 是否有可见部分
+     */
+    public boolean getVisibleRect(View descendant, Rect out) {
+        mapped.set(0, 0, getWidth(), getHeight());
+        inverse.mapRect(mapped);
+        // 转换到子孙视图的坐标系
+        View view = descendant;
+        while (view != this && view != null) {
+            mapped.offset(view.getScrollX() - view.getLeft(), view.getScrollY() - view.getTop());
+            ViewParent parent = view.getParent();
+            view = parent instanceof View ? (View) parent : null;
+        }
+        mapped.roundOut(out);
+        return out.intersect(0, 0, descendant.getWidth(), descendant.getHeight());
+    }
+
+    private void onTransformChanged() {
+        matrix.setTranslate(translateX, translateY);
+        matrix.preScale(scale, scale);
+        matrix.invert(inverse);
+        updateLevel();
+        invalidate();
+        if (transformListener != null) {
+            transformListener.onTransform(this);
+        }
+    }
+
+    private void updateLevel() {
+        int newLevel = scale >= textScale ? LEVEL_TEXT
+                : scale >= shapeScale ? LEVEL_SHAPE : LEVEL_DOT;
+        if (newLevel != level) {
+            level = newLevel;
+            if (levelOfDetail != null) {
+                levelOfDetail.onLevelChanged(level);
+            }
+        }
+    }
+
+    @Override
+    protected void dispatchDraw(Canvas canvas) {
+        int count = canvas.save();
+        canvas.concat(matrix);
+        super.dispatchDraw(canvas);
+        if (level != LEVEL_TEXT && levelOfDetail != null) {
+            View labelLayout = levelOfDetail.getLabelLayout();
+            // 平移到标签容器的坐标系
+            View view = labelLayout;
+            float dx = 0;
+            float dy = 0;
+            while (view != this && view != null) {
+                dx += view.getLeft() - view.getScrollX();
+                dy += view.getTop() - view.getScrollY();
+                ViewParent parent = view.getParent();
+                view = parent instanceof View ? (View) parent : null;
+            }
+            canvas.translate(dx, dy);
+            levelOfDetail.drawSimplified(canvas, level, scale);
+        }
+        canvas.restoreToCount(count);
+    }
+
+    @Override
+    public ViewParent invalidateChildInParent(int[] location, Rect dirty) {
+        // 子视图的脏区域是未变换的坐标，直接重绘整个画布
+        invalidate();
+        return null;
+    }
+
+    @Override
+    public boolean dispatchTouchEvent(MotionEvent ev) {
+        scaleDetector.onTouchEvent(ev);
+        gestureDetector.onTouchEvent(ev);
+        int action = ev.getActionMasked();
+        boolean finished = action == MotionEvent.ACTION_UP
+                || action == MotionEvent.ACTION_CANCEL;
+        if (scaleDetector.isInProgress() || panning) {
+            if (!childCanceled) {
+                // 手势开始后取消子视图正在处理的触摸
+                childCanceled = true;
+                MotionEvent cancel = MotionEvent.obtain(ev);
+                cancel.setAction(MotionEvent.ACTION_CANCEL);
+                super.dispatchTouchEvent(cancel);
+                cancel.recycle();
+            }
+        } else {
+            // 子视图按照未变换的坐标布局，分发前将触摸点映射回去
+            MotionEvent event = MotionEvent.obtain(ev);
+            event.transform(inverse);
+            super.dispatchTouchEvent(event);
+            event.recycle();
+        }
+        if (finished) {
+            panning = false;
+            childCanceled = false;
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,221 @@
+package cn.qiang.zhang.randomlabel;
+
+import android.graphics.Rect;
+import android.util.SparseArray;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 基于网格的标签聚合
+ * <p>
+ * 按标签中心点把标签划入固定大小的格子，当一个格子内与其他标签相互重叠的标签数量达到阈值时，
+ * 这个格子的标签折叠为一个“+N”气泡。每个标签是否与其他标签重叠与格子大小无关，只计算一次：
+ * 添加标签时通过空间索引找到与它重叠的标签，只更新这些标签所在格子的重叠计数；
+ * 格子大小改变（例如缩放）时按已有的重叠状态重新分组，拥挤程度降低后气泡会重新展开。
+ */
+final class LabelClusterer {
+
+    /** 一个格子即一个聚合 */
+    static final class Cluster {
+        /** 格子键 */
+        final int key;
+        /** 中心点落在格子内的标签下标 */
+        final IntList members = new IntList(4);
+        /** 是否已折叠为气泡 */
+        boolean collapsed;
+        /** 与其他标签重叠的成员数量 */
+        int colliding;
+        /** 成员中心点的平均位置 */
+        int centerX;
+        int centerY;
+        /** 成员中心点坐标之和 */
+        long sumX;
+        long sumY;
+
+        Cluster(int key) {
+            this.key = key;
+        }
+
+        int size() {
+            return members.size();
+        }
+    }
+
+    private final LabelData data;
+    /** 标签的空间索引，用于查找重叠的标签 */
+    private final SpatialGrid grid;
+    private final SparseArray<Cluster> clusters = new SparseArray<>();
+    private int cellSize;
+    private int threshold;
+    /** 标签下标 → 是否与其他标签重叠 */
+    private boolean[] colliding = new boolean[16];
+    /** 已计算重叠状态的标签数量 */
+    private int computed;
+    private final IntList overlapList = new IntList();
+    private final Rect bounds = new Rect();
+
+    LabelClusterer(LabelData data, SpatialGrid grid, int cellSize, int threshold) {
+        this.data = data;
+        this.grid = grid;
+        this.cellSize = Math.max(1, cellSize);
+        this.threshold = Math.max(2, threshold);
+    }
+
+    int cellSize() {
+        return cellSize;
+    }
+
+    /**
+     * 添加一个标签，只会影响它自己和与它重叠的标签所在的格子；标签需要已经放入空间索引
+     * @param index   标签下标
+     * @param changed 输出折叠状态或气泡数字发生变化的聚合
+     */
+    void add(int index, List<Cluster> changed) {
+        Cluster cluster = obtain(cell(centerX(index)), cell(centerY(index)));
+        addMember(cluster, index);
+        if (cluster.collapsed) {
+            // 已折叠的格子只需更新气泡数字
+            changed.add(cluster);
+        }
+        updateCollisions(changed);
+        evaluate(cluster, changed);
+    }
+
+    /**
+     * 以新的格子大小重建所有聚合
+     * @param cellSize 格子大小
+     * @param changed  输出重建前后需要刷新的聚合，重建前已折叠的聚合以展开状态输出
+     */
+    void rebuild(int cellSize, List<Cluster> changed) {
+        for (int i = 0; i < clusters.size(); i++) {
+            Cluster old = clusters.valueAt(i);
+            if (old.collapsed) {
+                old.collapsed = false;
+                changed.add(old);
+            }
+        }
+        clusters.clear();
+        this.cellSize = Math.max(1, cellSize);
+        // 重叠状态与格子大小无关，只需补充计算新增的标签
+        updateCollisions(null);
+        for (int index = 0; index < data.size(); index++) {
+            addMember(obtain(cell(centerX(index)), cell(centerY(index))), index);
+        }
+        for (int i = 0; i < clusters.size(); i++) {
+            evaluate(clusters.valueAt(i), changed);
+        }
+    }
+
+    void setThreshold(int threshold) {
+        this.threshold = Math.max(2, threshold);
+    }
+
+    void clear() {
+        clusters.clear();
+        Arrays.fill(colliding, 0, computed, false);
+        computed = 0;
+    }
+
+    /** 指定下标的标签是否被折叠在气泡中 */
+    boolean isCollapsed(int index) {
+        Cluster cluster = clusters.get(SpatialGrid.key(cell(centerX(index)), cell(centerY(index))));
+        return cluster != null && cluster.collapsed;
+    }
+
+    int size() {
+        return clusters.size();
+    }
+
+    Cluster valueAt(int i) {
+        return clusters.valueAt(i);
+    }
+
+    /**
+     * 按重叠的成员数量重新判断格子是否需要折叠
+     * @param changed 折叠状态改变时输出到这里
+     */
+    private void evaluate(Cluster cluster, List<Cluster> changed) {
+        boolean collapsed = cluster.colliding >= threshold;
+        if (collapsed == cluster.collapsed) {
+            return;
+        }
+        cluster.collapsed = collapsed;
+        if (!changed.contains(cluster)) {
+            changed.add(cluster);
+        }
+    }
+
+    /**
+     * 为尚未计算的标签查找与之重叠的标签，并更新双方的重叠状态
+     * @param changed 为null时只更新重叠状态，不更新格子的计数
+     */
+    private void updateCollisions(List<Cluster> changed) {
+        if (colliding.length < data.size()) {
+            colliding = Arrays.copyOf(colliding, Math.max(data.size(), colliding.length * 2));
+        }
+        for (; computed < data.size(); computed++) {
+            int index = computed;
+            bounds.set(data.x[index], data.y[index], data.x[index] + data.width[index],
+                       data.y[index] + data.height[index]);
+            overlapList.clear();
+            grid.query(bounds, overlapList);
+            for (int i = 0; i < overlapList.size(); i++) {
+                int other = overlapList.get(i);
+                if (other == index) {
+                    continue;
+                }
+                markColliding(other, changed);
+                markColliding(index, changed);
+            }
+        }
+    }
+
+    private void markColliding(int index, List<Cluster> changed) {
+        if (colliding[index]) {
+            return;
+        }
+        colliding[index] = true;
+        if (changed != null) {
+            Cluster cluster = clusters.get(SpatialGrid.key(cell(centerX(index)),
+                                                           cell(centerY(index))));
+            cluster.colliding++;
+            evaluate(cluster, changed);
+        }
+    }
+
+    /** 把标签加入格子，增量更新中心点和重叠计数 */
+    private void addMember(Cluster cluster, int index) {
+        cluster.members.add(index);
+        cluster.sumX += centerX(index);
+        cluster.sumY += centerY(index);
+        cluster.centerX = (int) (cluster.sumX / cluster.size());
+        cluster.centerY = (int) (cluster.sumY / cluster.size());
+        if (index < computed && colliding[index]) {
+            cluster.colliding++;
+        }
+    }
+
+    private Cluster obtain(int cx, int cy) {
+        int key = SpatialGrid.key(cx, cy);
+        Cluster cluster = clusters.get(key);
+        if (cluster == null) {
+            cluster = new Cluster(key);
+            clusters.put(key, cluster);
+        }
+        return cluster;
+    }
+
+    private int centerX(int index) {
+        return data.x[index] + data.width[index] / 2;
+    }
+
+    private int centerY(int index) {
+        return data.y[index] + data.height[index] / 2;
+    }
+
+    private int cell(int coordinate) {
+        return coordinate >= 0 ? coordinate / cellSize : (coordinate + 1) / cellSize - 1;
+    }
+
+}
@@ -0,0 +1,202 @@
+package cn.qiang.zhang.randomlabel;
+
+import android.graphics.Rect;
+import android.support.v4.util.LongSparseArray;
+
+import java.util.Arrays;
+
+import cn.qiang.zhang.library.LabelPalette;
+
+/**
+ * 标签数据
+ * <p>
+ * 使用平行的基本类型数组紧凑存储标签，虚拟化模式下只有进入可视范围的标签才会生成视图：
+ * <ul>
+ * <li>坐标为int，宽高为无符号16位；</li>
+ * <li>配色和字体大小的组合数量很少，放在样式表中，每个标签只保存16位的样式下标；</li>
+ * <li>文字依次拼接在一个字符表中，每个标签只保存起始位置，不持有String对象。</li>
+ * </ul>
+ * 每个标签约占18字节加上文字本身的UTF-16字节数。
+ */
+final class LabelData {
+    /** 初始容量 */
+    private static final int DEFAULT_CAPACITY = 16;
+    /** 字符表初始容量 */
+    private static final int DEFAULT_TEXT_CAPACITY = 128;
+    /** 样式下标为16位，最多支持的样式数量 */
+    private static final int MAX_STYLES = Character.MAX_VALUE + 1;
+
+    /** 标签左上角相对于容器的横坐标 */
+    int[] x = new int[DEFAULT_CAPACITY];
+    /** 标签左上角相对于容器的纵坐标 */
+    int[] y = new int[DEFAULT_CAPACITY];
+    /** 标签测量宽度，无符号16位 */
+    char[] width = new char[DEFAULT_CAPACITY];
+    /** 标签测量高度，无符号16位 */
+    char[] height = new char[DEFAULT_CAPACITY];
+    /** 标签在样式表中的下标 */
+    private char[] style = new char[DEFAULT_CAPACITY];
+    /** 标签文字在字符表中的起始位置，第size个元素为字符表的长度 */
+    private int[] textStart = new int[DEFAULT_CAPACITY + 1];
+    /** 字符表：所有标签的文字依次拼接 */
+    private char[] text = new char[DEFAULT_TEXT_CAPACITY];
+
+    /*样式表*/
+    /** 样式 → 添加时配色在调色板中的下标，换用调色板时保持不变，读取时再对当前调色板取模 */
+    private int[] stylePalette = new int[DEFAULT_CAPACITY];
+    /** 当前调色板的配色数量 */
+    private int paletteSize = Integer.MAX_VALUE;
+    /** 样式 → 背景颜色 */
+    private int[] styleColor = new int[DEFAULT_CAPACITY];
+    /** 样式 → 字体大小：sp单位 */
+    private float[] styleTextSize = new float[DEFAULT_CAPACITY];
+    private int styleCount;
+    /** (配色下标, 字体大小) → 样式 */
+    private final LongSparseArray<Integer> styleMap = new LongSparseArray<>();
+
+    /** 标签数量 */
+    private int size;
+
+    /**
+     * 添加一个标签数据
+     * @param palette  配色在调色板中的下标
+     * @param color    背景颜色
+     * @param textSize 字体大小：sp单位
+     * @return 标签下标
+     */
+    int add(String message, int x, int y, int width, int height, int palette, int color,
+            float textSize) {
+        ensureCapacity(size + 1);
+        int start = textStart[size];
+        int length = message.length();
+        ensureTextCapacity(start + length);
+        message.getChars(0, length, text, start);
+        this.x[size] = x;
+        this.y[size] = y;
+        this.width[size] = (char) Math.min(Math.max(width, 0), Character.MAX_VALUE);
+        this.height[size] = (char) Math.min(Math.max(height, 0), Character.MAX_VALUE);
+        this.style[size] = (char) obtainStyle(palette, color, textSize);
+        textStart[size + 1] = start + length;
+        return size++;
+    }
+
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        // 数组容量保留以便复用
+        size = 0;
+        styleCount = 0;
+        styleMap.clear();
+    }
+
+    /** 标签文字，每次调用都会生成新的String */
+    String message(int index) {
+        int start = textStart[index];
+        return new String(text, start, textStart[index + 1] - start);
+    }
+
+    /** 字符表，标签文字为从{@link #textStart(int)}开始的{@link #textLength(int)}个字符 */
+    char[] text() {
+        return text;
+    }
+
+    int textStart(int index) {
+        return textStart[index];
+    }
+
+    int textLength(int index) {
+        return textStart[index + 1] - textStart[index];
+    }
+
+    /** 配色在当前调色板中的下标 */
+    int palette(int index) {
+        return stylePalette[style[index]] % paletteSize;
+    }
+
+    /** 背景颜色 */
+    int color(int index) {
+        return styleColor[style[index]];
+    }
+
+    /** 字体大小：sp单位 */
+    float textSize(int index) {
+        return styleTextSize[style[index]];
+    }
+
+    /**
+     * 换用新的调色板，按添加时的配色下标取新颜色；只需要更新样式表，与标签数量无关。
+     * 添加时的下标不会被改写，先换成较小的调色板再换回来，颜色可以完全恢复
+     * @param palette 调色板
+     */
+    void recolor(LabelPalette palette) {
+        paletteSize = palette.size();
+        for (int i = 0; i < styleCount; i++) {
+            styleColor[i] = palette.colorAt(stylePalette[i] % paletteSize);
+        }
+    }
+
+    /**
+     * 估算占用的内存，包括预留的容量
+     * @return 字节数
+     */
+    long getRetainedBytes() {
+        return (long) x.length * (4 + 4 + 2 + 2 + 2) + textStart.length * 4L + text.length * 2L
+                + stylePalette.length * (4 + 4 + 4L);
+    }
+
+    /** 指定下标的标签是否与矩形范围相交 */
+    boolean intersects(int index, Rect rect) {
+        return x[index] < rect.right && rect.left < x[index] + width[index]
+                && y[index] < rect.bottom && rect.top < y[index] + height[index];
+    }
+
+    /** 查找或新建样式 */
+    private int obtainStyle(int palette, int color, float textSize) {
+        long key = styleKey(palette, textSize);
+        Integer existing = styleMap.get(key);
+        if (existing != null) {
+            return existing;
+        }
+        if (styleCount == MAX_STYLES) {
+            throw new IllegalStateException("too many label styles: " + MAX_STYLES);
+        }
+        if (styleCount == stylePalette.length) {
+            int capacity = stylePalette.length * 2;
+            stylePalette = Arrays.copyOf(stylePalette, capacity);
+            styleColor = Arrays.copyOf(styleColor, capacity);
+            styleTextSize = Arrays.copyOf(styleTextSize, capacity);
+        }
+        stylePalette[styleCount] = palette;
+        styleColor[styleCount] = color;
+        styleTextSize[styleCount] = textSize;
+        styleMap.put(key, styleCount);
+        return styleCount++;
+    }
+
+    private static long styleKey(int palette, float textSize) {
+        return ((long) palette << 32) | (Float.floatToIntBits(textSize) & 0xFFFFFFFFL);
+    }
+
+    private void ensureCapacity(int minCapacity) {
+        if (minCapacity <= x.length) {
+            return;
+        }
+        int capacity = Math.max(minCapacity, x.length * 2);
+        x = Arrays.copyOf(x, capacity);
+        y = Arrays.copyOf(y, capacity);
+        width = Arrays.copyOf(width, capacity);
+        height = Arrays.copyOf(height, capacity);
+        style = Arrays.copyOf(style, capacity);
+        textStart = Arrays.copyOf(textStart, capacity + 1);
+    }
+
+    private void ensureTextCapacity(int minCapacity) {
+        if (minCapacity <= text.length) {
+            return;
+        }
+        text = Arrays.copyOf(text, Math.max(minCapacity, text.length * 2));
+    }
+
+}
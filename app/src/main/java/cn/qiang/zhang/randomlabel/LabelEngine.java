@@ -0,0 +1,310 @@
+package cn.qiang.zhang.randomlabel;
+
+import android.content.Context;
+import android.graphics.Paint;
+import android.graphics.Typeface;
+import android.support.v4.view.ViewCompat;
+import android.text.TextPaint;
+import android.util.LruCache;
+import android.util.SparseArray;
+import android.view.View;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import cn.qiang.zhang.library.LabelRegistry;
+import cn.qiang.zhang.library.LabelView;
+
+/**
+ * 共享的标签引擎
+ * <p>
+ * 同一屏幕上的多个{@link LabelManager}关联同一个引擎后：
+ * <ul>
+ * <li>标签视图通过{@link LabelRegistry}的对象池在各个容器之间复用，视图连同背景一起复用；</li>
+ * <li>文字宽度和行高按(字体, 字号)共享缓存；</li>
+ * <li>插入和动画等分帧任务进入同一个队列，每帧在时间预算内按优先级执行，
+ * 可见的容器优先，同一优先级轮流执行，等待过久的容器逐渐提升优先级，不会被饿死。</li>
+ * </ul>
+ * 只在主线程使用。
+ */
+public final class LabelEngine {
+    public static final int PRIORITY_LOW = 0;
+    public static final int PRIORITY_NORMAL = 1;
+    public static final int PRIORITY_HIGH = 2;
+
+    /** 容器在屏幕上可见时额外提升的优先级 */
+    private static final int VISIBLE_BOOST = 2;
+    /** 每等待这么多帧提升一级优先级 */
+    private static final int AGING_FRAMES = 8;
+    /** 每帧执行任务的时间预算 */
+    private static final long DEFAULT_FRAME_BUDGET_NANOS = 6000000L;
+    /** 共享时对象池的大小 */
+    private static final int SHARED_POOL_SIZE = 256;
+    /** 每种(字体, 字号)缓存的文字宽度数量 */
+    private static final int WIDTH_CACHE_SIZE = 1024;
+
+    /** 分帧执行的任务 */
+    public interface Task {
+        /**
+         * 执行一小步，应当足够短，以便引擎在预算内穿插其他容器的任务
+         * @return true 表示还有剩余工作
+         */
+        boolean step();
+    }
+
+    /** 一种(字体, 字号)的测量缓存 */
+    private static final class TextMetrics {
+        /** 文字 → 宽度 */
+        final LruCache<String, Integer> widths = new LruCache<>(WIDTH_CACHE_SIZE);
+        /** 行高，-1表示尚未测量 */
+        int lineHeight = -1;
+    }
+
+    /** 一个容器在队列中的状态 */
+    private static final class Slot {
+        final LabelManager manager;
+        final Deque<Task> tasks = new ArrayDeque<>();
+        int priority = PRIORITY_NORMAL;
+        /** 有任务却没有被执行的连续帧数 */
+        int waitFrames;
+        /** 本帧的有效优先级 */
+        int effective;
+        boolean served;
+
+        Slot(LabelManager manager) {
+            this.manager = manager;
+        }
+    }
+
+    private final LabelRegistry registry;
+    private final List<Slot> slots = new ArrayList<>();
+    /** 轮转起点，使同一优先级的容器交替执行 */
+    private int cursor;
+    private long frameBudgetNanos = DEFAULT_FRAME_BUDGET_NANOS;
+    private boolean scheduled;
+    /** 字体 → 字号的位表示 → 测量缓存，两级分别查找，不同的(字体, 字号)不会共用缓存 */
+    private final Map<Typeface, SparseArray<TextMetrics>> metricsCache = new HashMap<>();
+    private final Paint.FontMetricsInt metrics = new Paint.FontMetricsInt();
+
+    private final Runnable frame = new Runnable() {
+        @Override
+        public void run() {
+            scheduled = false;
+            onFrame();
+        }
+    };
+
+    public LabelEngine(Context context) {
+        this.registry = LabelRegistry.get(context);
+        registry.setMaxPoolSize(Math.max(registry.getMaxPoolSize(), SHARED_POOL_SIZE));
+    }
+
+    /**
+     * 设置每帧执行任务的时间预算
+     * @param millis 毫秒
+     */
+    public void setFrameBudget(float millis) {
+        this.frameBudgetNanos = (long) (millis * 1000000L);
+    }
+
+    /**
+     * 设置容器的基础优先级，可见的容器会在此基础上再提升
+     * @param manager  已关联的标签管理
+     * @param priority {@link #PRIORITY_LOW}、{@link #PRIORITY_NORMAL}或{@link #PRIORITY_HIGH}
+     */
+    public void setPriority(LabelManager manager, int priority) {
+        Slot slot = find(manager);
+        if (slot != null) {
+            slot.priority = priority;
+        }
+    }
+
+    /** 队列中尚未完成的任务数量 */
+    public int getPendingCount() {
+        int count = 0;
+        for (Slot slot : slots) {
+            count += slot.tasks.size();
+        }
+        return count;
+    }
+
+    void attach(LabelManager manager) {
+        if (find(manager) == null) {
+            slots.add(new Slot(manager));
+        }
+    }
+
+    void detach(LabelManager manager) {
+        Slot slot = find(manager);
+        if (slot != null) {
+            slots.remove(slot);
+        }
+    }
+
+    /**
+     * 把任务加入容器的队列，在之后的帧中执行
+     * @param manager 已关联的标签管理
+     * @param task    任务
+     * @return false 表示容器已经与引擎解除关联，任务没有加入队列
+     */
+    boolean enqueue(LabelManager manager, Task task) {
+        Slot slot = find(manager);
+        if (slot == null) {
+            return false;
+        }
+        slot.tasks.add(task);
+        scheduleFrame();
+        return true;
+    }
+
+    /** 丢弃容器所有尚未执行的任务 */
+    void cancel(LabelManager manager) {
+        Slot slot = find(manager);
+        if (slot != null) {
+            slot.tasks.clear();
+            slot.waitFrames = 0;
+        }
+    }
+
+    /** 从共享对象池获取样式一致的标签视图，没有则新建 */
+    LabelView obtainView(LabelView.Builder builder) {
+        return registry.obtain(builder);
+    }
+
+    /** 把标签视图从容器中移除并放回共享对象池 */
+    void recycleView(LabelView view) {
+        registry.release(view);
+    }
+
+    /**
+     * 测量文字宽度，结果按(字体, 字号)共享
+     * @param paint 已设置字体和字号的画笔
+     * @param text  文字
+     * @return 宽度像素值，向上取整
+     */
+    int measureWidth(TextPaint paint, String text) {
+        LruCache<String, Integer> cache = metricsOf(paint).widths;
+        Integer width = cache.get(text);
+        if (width == null) {
+            width = (int) Math.ceil(paint.measureText(text));
+            cache.put(text, width);
+        }
+        return width;
+    }
+
+    /** 行高，与TextView包含字体内距时一致 */
+    int lineHeight(TextPaint paint) {
+        TextMetrics textMetrics = metricsOf(paint);
+        if (textMetrics.lineHeight < 0) {
+            paint.getFontMetricsInt(metrics);
+            textMetrics.lineHeight = metrics.bottom - metrics.top;
+        }
+        return textMetrics.lineHeight;
+    }
+
+    /** 画笔当前(字体, 字号)的测量缓存，没有则新建 */
+    private TextMetrics metricsOf(TextPaint paint) {
+        Typeface typeface = paint.getTypeface();
+        SparseArray<TextMetrics> sizes = metricsCache.get(typeface);
+        if (sizes == null) {
+            sizes = new SparseArray<>();
+            metricsCache.put(typeface, sizes);
+        }
+        int key = Float.floatToIntBits(paint.getTextSize());
+        TextMetrics textMetrics = sizes.get(key);
+        if (textMetrics == null) {
+            textMetrics = new TextMetrics();
+            sizes.put(key, textMetrics);
+        }
+        return textMetrics;
+    }
+
+    private Slot find(LabelManager manager) {
+        for (Slot slot : slots) {
+            if (slot.manager == manager) {
+                return slot;
+            }
+        }
+        return null;
+    }
+
+    private void scheduleFrame() {
+        if (scheduled) {
+            return;
+        }
+        View host = null;
+        for (Slot slot : slots) {
+            View layout = slot.manager.getLayout();
+            if (host == null || layout.getWindowToken() != null) {
+                host = layout;
+            }
+            if (host.getWindowToken() != null) {
+                break;
+            }
+        }
+        if (host != null) {
+            scheduled = true;
+            ViewCompat.postOnAnimation(host, frame);
+        }
+    }
+
+    private void onFrame() {
+        long start = System.nanoTime();
+        for (Slot slot : slots) {
+            boolean visible = slot.manager.isOnScreen();
+            slot.effective = slot.priority + (visible ? VISIBLE_BOOST : 0)
+                    + slot.waitFrames / AGING_FRAMES;
+            slot.served = false;
+        }
+        while (System.nanoTime() - start < frameBudgetNanos) {
+            int index = pick();
+            if (index < 0) {
+                break;
+            }
+            Slot slot = slots.get(index);
+            Task task = slot.tasks.peek();
+            if (!task.step()) {
+                // 任务可能在执行中清空了队列，只移除仍在队首的自己
+                if (slot.tasks.peek() == task) {
+                    slot.tasks.poll();
+                }
+            }
+            slot.served = true;
+            cursor = index + 1;
+        }
+        boolean pending = false;
+        for (Slot slot : slots) {
+            if (slot.tasks.isEmpty()) {
+                slot.waitFrames = 0;
+            } else {
+                pending = true;
+                slot.waitFrames = slot.served ? 0 : slot.waitFrames + 1;
+            }
+        }
+        if (pending) {
+            scheduleFrame();
+        }
+    }
+
+    /**
+     * 选出有效优先级最高、有任务的容器；优先级相同时从轮转起点开始的第一个
+     * @return 容器在slots中的下标，没有任务时返回-1
+     */
+    private int pick() {
+        int size = slots.size();
+        int best = -1;
+        for (int i = 0; i < size; i++) {
+            int index = (cursor + i) % size;
+            Slot slot = slots.get(index);
+            if (!slot.tasks.isEmpty() && (best < 0 || slot.effective > slots.get(best).effective)) {
+                best = index;
+            }
+        }
+        return best;
+    }
+
+}
@@ -0,0 +1,199 @@
+package cn.qiang.zhang.randomlabel;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.graphics.Typeface;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.text.TextPaint;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * 标签云导出
+ * <p>
+ * 在后台线程按标签数据重新绘制，不访问任何视图：输出图片被切分为固定像素数的横条，
+ * 每次只在一张复用的横条位图上绘制与之相交的标签，再逐行压缩写入PNG流。
+ * 内存占用由横条大小决定，与输出尺寸无关。
+ */
+public final class LabelExporter {
+    /** 单个横条的像素数，ARGB_8888下约1MB */
+    private static final int TILE_PIXELS = 512 * 512;
+
+    /** 导出结果，在主线程回调 */
+    public interface Callback {
+        /**
+         * 导出完成，输出流已刷新但没有关闭
+         * @param width  图片宽度
+         * @param height 图片高度
+         */
+        void onExported(int width, int height);
+
+        void onError(Throwable error);
+    }
+
+    /*标签快照，在主线程复制*/
+    private final int count;
+    private final int[] x;
+    private final int[] y;
+    private final int[] width;
+    private final int[] height;
+    private final int[] color;
+    private final int[] textColor;
+    /** 字体大小像素值 */
+    private final float[] textSize;
+    /** 字符表，标签文字为从textStart开始的textLength个字符 */
+    private final char[] text;
+    private final int[] textStart;
+    private final int[] textLength;
+
+    /*样式*/
+    private final int layoutWidth;
+    private final int layoutHeight;
+    private final Typeface typeface;
+    private final int paddingLeft;
+    private final int corner;
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private volatile boolean cancelled;
+
+    LabelExporter(LabelData data, int[] textColor, float[] textSize, int layoutWidth,
+                  int layoutHeight, Typeface typeface, int paddingLeft, int corner) {
+        this.count = data.size();
+        this.x = new int[count];
+        this.y = new int[count];
+        this.width = new int[count];
+        this.height = new int[count];
+        this.color = new int[count];
+        this.textStart = new int[count];
+        this.textLength = new int[count];
+        System.arraycopy(data.x, 0, x, 0, count);
+        System.arraycopy(data.y, 0, y, 0, count);
+        for (int i = 0; i < count; i++) {
+            width[i] = data.width[i];
+            height[i] = data.height[i];
+            color[i] = data.color(i);
+            textStart[i] = data.textStart(i);
+            textLength[i] = data.textLength(i);
+        }
+        // 字符表只会追加，复制已使用的部分，不为每个标签生成String
+        int textEnd = count > 0 ? textStart[count - 1] + textLength[count - 1] : 0;
+        this.text = new char[textEnd];
+        System.arraycopy(data.text(), 0, text, 0, textEnd);
+        this.textColor = textColor;
+        this.textSize = textSize;
+        this.layoutWidth = layoutWidth;
+        this.layoutHeight = layoutHeight;
+        this.typeface = typeface;
+        this.paddingLeft = paddingLeft;
+        this.corner = corner;
+    }
+
+    /** 取消导出，已写出的数据不会回滚，也不会再回调 */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    void start(final OutputStream out, final float scale, final int backgroundColor,
+               final Callback callback) {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                final int outWidth = Math.max(1, (int) Math.ceil(layoutWidth * scale));
+                final int outHeight = Math.max(1, (int) Math.ceil(layoutHeight * scale));
+                try {
+                    export(out, scale, backgroundColor, outWidth, outHeight);
+                } catch (final IOException | RuntimeException | OutOfMemoryError e) {
+                    // 输出尺寸过大时横条位图可能分配失败，同样交给回调
+                    post(new Runnable() {
+                        @Override
+                        public void run() {
+                            callback.onError(e);
+                        }
+                    });
+                    return;
+                }
+                post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onExported(outWidth, outHeight);
+                    }
+                });
+            }
+        }, "LabelExporter");
+        thread.start();
+    }
+
+    private void post(final Runnable runnable) {
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!cancelled) {
+                    runnable.run();
+                }
+            }
+        });
+    }
+
+    private void export(OutputStream out, float scale, int backgroundColor, int outWidth,
+                        int outHeight) throws IOException {
+        int tileHeight = Math.max(1, Math.min(outHeight, TILE_PIXELS / outWidth));
+        Bitmap tile = Bitmap.createBitmap(outWidth, tileHeight, Bitmap.Config.ARGB_8888);
+        PngEncoder encoder = null;
+        try {
+            int[] pixels = new int[outWidth * tileHeight];
+            Canvas canvas = new Canvas(tile);
+            Paint fillPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+            TextPaint textPaint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+            textPaint.setTypeface(typeface);
+            Paint.FontMetricsInt fm = new Paint.FontMetricsInt();
+            RectF rect = new RectF();
+            encoder = new PngEncoder(out, outWidth, outHeight);
+            for (int top = 0; top < outHeight; top += tileHeight) {
+                if (cancelled) {
+                    return;
+                }
+                int rows = Math.min(tileHeight, outHeight - top);
+                // 横条在标签容器坐标系中的范围
+                float clipTop = top / scale;
+                float clipBottom = (top + rows) / scale;
+                tile.eraseColor(backgroundColor);
+                canvas.save();
+                canvas.translate(0, -top);
+                canvas.scale(scale, scale);
+                // 按添加顺序绘制，后添加的在上层
+                for (int i = 0; i < count; i++) {
+                    if (y[i] >= clipBottom || y[i] + height[i] <= clipTop) {
+                        continue;
+                    }
+                    rect.set(x[i], y[i], x[i] + width[i], y[i] + height[i]);
+                    float radius = Math.min(corner, height[i] / 2f);
+                    fillPaint.setColor(color[i]);
+                    canvas.drawRoundRect(rect, radius, radius, fillPaint);
+                    textPaint.setColor(textColor[i]);
+                    textPaint.setTextSize(textSize[i]);
+                    textPaint.getFontMetricsInt(fm);
+                    // 与TextView一致：上内距为0，包含字体内距时基线在顶部以下-top处
+                    canvas.drawText(text, textStart[i], textLength[i], x[i] + paddingLeft,
+                                    y[i] - fm.top, textPaint);
+                }
+                canvas.restore();
+                tile.getPixels(pixels, 0, outWidth, 0, 0, outWidth, rows);
+                encoder.writeRows(pixels, 0, rows);
+            }
+            encoder.finish();
+        } finally {
+            if (encoder != null) {
+                // 出错或取消时同样释放压缩器的本地内存
+                encoder.end();
+            }
+            tile.recycle();
+        }
+    }
+
+}
@@ -1,15 +1,28 @@
 package cn.qiang.zhang.randomlabel;
 
-import android.content.res.Resources;
-import android.graphics.Color;
+import android.graphics.Canvas;
+import android.graphics.Paint;
 import android.graphics.Rect;
-import android.util.TypedValue;
+import android.graphics.RectF;
+import android.support.annotation.ColorInt;
+import android.text.TextPaint;
+import android.util.SparseArray;
+import android.util.SparseIntArray;
+import android.view.GestureDetector;
+import android.view.MotionEvent;
 import android.view.View;
+import android.view.ViewTreeObserver;
 import android.widget.FrameLayout;
 
+import java.io.OutputStream;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
 
+import cn.qiang.zhang.library.Dimensions;
+import cn.qiang.zhang.library.LabelBatchAnimator;
+import cn.qiang.zhang.library.LabelPalette;
 import cn.qiang.zhang.library.LabelView;
 
 /**
@@ -20,6 +33,24 @@ import cn.qiang.zhang.library.LabelView;
 public final class LabelManager {
     private static final String TAG = "LabelManager";
 
+    /** 标签点击监听 */
+    public interface OnLabelClickListener {
+        /**
+         * @param manager 标签管理
+         * @param index   标签下标
+         * @param message 标签文字
+         */
+        void onLabelClick(LabelManager manager, int index, String message);
+    }
+
+    /** 标签长按监听 */
+    public interface OnLabelLongClickListener {
+        /**
+         * @return true 表示已消费
+         */
+        boolean onLabelLongClick(LabelManager manager, int index, String message);
+    }
+
     /** 初始标签 */
     private final LabelView labelView;
     private final FrameLayout layout;
@@ -32,6 +63,151 @@ public final class LabelManager {
     private List<Rect> otherList = new ArrayList<>();
     private List<LabelView> labelList = new ArrayList<>();
 
+    /** 容器离开窗口后释放了所有视图，标签数据仍然保留 */
+    private boolean viewsReleased;
+
+    /** 标签数据，非虚拟化模式下下标与labelList一致 */
+    private final LabelData labelData = new LabelData();
+    /** 标签数据的空间索引 */
+    private final SpatialGrid labelGrid;
+    /** 不生成视图时估算标签范围的画笔 */
+    private final TextPaint measurePaint;
+    /** 共享的尺寸换算 */
+    private final Dimensions dimensions;
+
+    /*虚拟化模式*/
+    /** 可视范围之外预先生成标签的边距 */
+    private static final int VIEWPORT_MARGIN_DIP = 48;
+    /** 空间索引的格子大小 */
+    private static final int GRID_CELL_DIP = 64;
+    /** 是否启用虚拟化：标签数据保存在数组中，只有与可视范围相交的标签才会生成视图 */
+    private boolean virtualized;
+    /** 标签下标 → 已生成的视图 */
+    private final SparseArray<LabelView> attachedList = new SparseArray<>();
+    /** 移出可视范围后回收的视图 */
+    private final Deque<LabelView> recycledList = new ArrayDeque<>();
+    private final Rect viewport = new Rect();
+    /**
+     * viewport是否仍然有效。可视范围只在滚动、布局和缩放之后变化，这些回调都会重新计算；
+     * 逐个添加标签时沿用缓存，不必每个标签都遍历一次视图树
+     */
+    private boolean viewportValid;
+    private final IntList visibleList = new IntList();
+    private final ViewTreeObserver.OnScrollChangedListener scrollListener =
+            new ViewTreeObserver.OnScrollChangedListener() {
+                @Override
+                public void onScrollChanged() {
+                    refreshViewport();
+                }
+            };
+    /** 第一次布局之前和尺寸变化之后可视范围才确定，需要在布局完成后补充生成视图 */
+    private final ViewTreeObserver.OnGlobalLayoutListener layoutListener =
+            new ViewTreeObserver.OnGlobalLayoutListener() {
+                @Override
+                public void onGlobalLayout() {
+                    refreshViewport();
+                }
+            };
+
+    /*缩放画布*/
+    /** 色点半径，不随缩放变化 */
+    private static final int DOT_RADIUS_DIP = 2;
+    /** 简化标签的圆角半径 */
+    private static final int SHAPE_CORNER_DIP = 8;
+    private LabelCanvasLayout canvasLayout;
+    private int detailLevel = LabelCanvasLayout.LEVEL_TEXT;
+    private final Paint simplePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    /** 简化绘制的可视范围，与viewport分开，绘制时不影响已缓存的viewport */
+    private final Rect simpleViewport = new Rect();
+    private final RectF simpleRect = new RectF();
+    private final Rect simpleBounds = new Rect();
+
+    /*标签聚合*/
+    /** 聚合格子在屏幕上的大小，缩放时换算为容器坐标 */
+    private static final int CLUSTER_CELL_DIP = 96;
+    /** 一个格子内相互重叠的标签达到这个数量时折叠 */
+    private static final int DEFAULT_CLUSTER_THRESHOLD = 4;
+    private LabelClusterer clusterer;
+    private int clusterThreshold = DEFAULT_CLUSTER_THRESHOLD;
+    private final List<LabelClusterer.Cluster> changedList = new ArrayList<>();
+    /** 聚合键 → 气泡视图 */
+    private final SparseArray<LabelView> bubbleList = new SparseArray<>();
+    private final Deque<LabelView> recycledBubbleList = new ArrayDeque<>();
+    /** 所有创建过的气泡视图 */
+    private final List<LabelView> bubbleViewList = new ArrayList<>();
+
+    /** 标签配色 */
+    private LabelPalette palette = LabelPalette.DEFAULT;
+
+    /*阴影*/
+    /** 标签的阴影方式 */
+    private LabelView.SHADOW shadow = LabelView.SHADOW.ELEVATION;
+    /** 标签数量超过这个值后关闭阴影 */
+    private int shadowLimit = Integer.MAX_VALUE;
+
+    /*点击*/
+    private OnLabelClickListener clickListener;
+    private OnLabelLongClickListener longClickListener;
+    private GestureDetector gestureDetector;
+    /**
+     * 命中测试的绘制顺序，跳过已折叠的标签。
+     * 虚拟化模式下视图按生成的先后绘制，复用的视图会移到最上层，按生成时记录的序号比较；
+     * 其他情况下标签按下标顺序添加和绘制。
+     */
+    private final SpatialGrid.Order hitOrder = new SpatialGrid.Order() {
+        @Override
+        public int order(int index) {
+            if (isCollapsed(index)) {
+                return -1;
+            }
+            if (!virtualized || detailLevel != LabelCanvasLayout.LEVEL_TEXT) {
+                return index;
+            }
+            // 还没有生成视图时屏幕上没有这个标签
+            return attachOrder.get(index, -1);
+        }
+    };
+    /** 虚拟化模式下标签下标 → 视图生成时的序号，序号越大绘制越靠上 */
+    private final SparseIntArray attachOrder = new SparseIntArray();
+    private int attachCounter;
+
+    /*数据流*/
+    /** 默认饱和比例：标签面积之和达到可放置面积的这个比例时停止拉取 */
+    private static final float DEFAULT_SATURATION = 0.6f;
+    /** 默认预取数量 */
+    private static final int DEFAULT_PREFETCH = 50;
+    private float saturation = DEFAULT_SATURATION;
+    /** 所有可放置区域的面积之和 */
+    private long placementArea;
+    /** 已放置标签的面积之和 */
+    private long occupiedArea;
+    private LabelStream labelStream;
+
+    /*词云*/
+    /** 词云占用网格的格子大小，越小越紧凑 */
+    private static final int WORD_CLOUD_CELL_DIP = 4;
+    private static final int DEFAULT_WORD_CLOUD_MIN_SIZE = 10;
+    private static final int DEFAULT_WORD_CLOUD_MAX_SIZE = 32;
+    private int wordCloudMinSize = DEFAULT_WORD_CLOUD_MIN_SIZE;
+    private int wordCloudMaxSize = DEFAULT_WORD_CLOUD_MAX_SIZE;
+    /** 占位视图的范围 */
+    private Rect holder;
+
+    /*共享引擎*/
+    /** 关联的引擎，为null时视图、测量和分帧任务都由自己管理 */
+    private LabelEngine engine;
+    private final Rect screenRect = new Rect();
+
+    /** 批量入场和出场动画 */
+    private final LabelBatchAnimator batchAnimator = new LabelBatchAnimator();
+    private final List<LabelView> batchList = new ArrayList<>();
+    /** 是否有淡出后执行的清除尚未完成 */
+    private boolean clearing;
+    /** 正在淡出的标签视图，数据已经清除，淡出结束后只移除这些视图 */
+    private final List<LabelView> fadingList = new ArrayList<>();
+    /** 正在淡出的气泡视图 */
+    private final List<LabelView> fadingBubbleList = new ArrayList<>();
+
     public static LabelManager create(View targetView, String message) {
         return new LabelManager(targetView, message);
     }
@@ -49,14 +225,36 @@ public final class LabelManager {
         // 用于移除所有新添加的标签
         this.layout = (FrameLayout) labelView.getTargetView().getTag();
         labelView.show();
+        this.dimensions = Dimensions.get(labelView.getContext());
+        this.labelGrid = new SpatialGrid(labelData, dipToPixels(GRID_CELL_DIP));
+        this.measurePaint = new TextPaint(labelView.getPaint());
+        // 初始标签是生成其他标签的模板，注册表只在Activity销毁时移除它，不会在容器离开窗口时放入对象池
+        // 容器离开窗口后不再持有任何标签视图，标签数据保留，重新进入窗口后再生成
+        layout.addOnAttachStateChangeListener(new View.OnAttachStateChangeListener() {
+            @Override
+            public void onViewAttachedToWindow(View v) {
+                restoreViews();
+            }
+
+            @Override
+            public void onViewDetachedFromWindow(View v) {
+                releaseViews();
+            }
+        });
     }
 
     /** 设置占位中心 */
     public void setPlaceHolder(View layout, View view) {
         spaceList.clear();
         this.container = getRect(layout);
+        this.holder = getRect(view);
+        placementArea = 0;
         for (int i = 0; i < 4; i++) {
-            spaceList.add(createSpace(i, getRect(view)));
+            Rect space = createSpace(i, holder);
+            spaceList.add(space);
+            if (space.width() > 0 && space.height() > 0) {
+                placementArea += (long) space.width() * space.height();
+            }
         }
     }
 
@@ -64,14 +262,683 @@ public final class LabelManager {
         otherList.add(getRect(view));
     }
 
+    /**
+     * 设置虚拟化模式，适用于放在可滚动容器中、远大于屏幕的标签云
+     * <p>
+     * 开启后标签只保存为数据，滚动时按可视范围生成和回收视图，内存和绘制代价只与可视范围有关。
+     * 需要在添加标签之前设置。
+     * @param virtualized true 表示开启；false 表示关闭
+     */
+    public void setVirtualized(boolean virtualized) {
+        if (this.virtualized == virtualized) {
+            return;
+        }
+        clear();
+        this.virtualized = virtualized;
+        viewportValid = false;
+        ViewTreeObserver observer = layout.getViewTreeObserver();
+        if (virtualized) {
+            observer.addOnScrollChangedListener(scrollListener);
+            observer.addOnGlobalLayoutListener(layoutListener);
+        } else {
+            observer.removeOnScrollChangedListener(scrollListener);
+            //noinspection deprecation
+            observer.removeGlobalOnLayoutListener(layoutListener);
+        }
+    }
+
+    public boolean isVirtualized() {
+        return virtualized;
+    }
+
+    /**
+     * 关联共享引擎，同一屏幕上的多个标签管理关联同一个引擎后共享视图池和测量缓存，
+     * 分帧添加的任务按可见性和优先级统一调度。会清除所有标签，需要在添加标签之前设置。
+     * @param engine 引擎，传入null表示解除关联；不再使用的标签管理需要解除关联
+     */
+    public void attachEngine(LabelEngine engine) {
+        if (this.engine == engine) {
+            return;
+        }
+        clear();
+        if (this.engine != null) {
+            this.engine.detach(this);
+        }
+        this.engine = engine;
+        if (engine != null) {
+            engine.attach(this);
+        }
+    }
+
+    public LabelEngine getEngine() {
+        return engine;
+    }
+
+    /** 标签容器 */
+    View getLayout() {
+        return layout;
+    }
+
+    /** 容器是否有部分显示在屏幕上 */
+    boolean isOnScreen() {
+        if (!layout.isShown()) {
+            return false;
+        }
+        if (canvasLayout != null) {
+            return canvasLayout.getVisibleRect(layout, screenRect);
+        }
+        return layout.getLocalVisibleRect(screenRect);
+    }
+
+    /**
+     * 关联可缩放的画布，标签容器需要是画布的子孙视图
+     * <p>
+     * 缩小到阈值以下时不再绘制标签视图，改为绘制色点或圆角矩形；虚拟化模式下同时回收所有视图。
+     * @param canvasLayout 缩放画布，传入null表示解除关联
+     */
+    public void attachCanvas(LabelCanvasLayout canvasLayout) {
+        if (this.canvasLayout != null) {
+            this.canvasLayout.setLevelOfDetail(null);
+            this.canvasLayout.setOnTransformListener(null);
+        }
+        this.canvasLayout = canvasLayout;
+        viewportValid = false;
+        if (canvasLayout != null) {
+            canvasLayout.setLevelOfDetail(new LabelLevelOfDetail());
+            canvasLayout.setOnTransformListener(new LabelCanvasLayout.OnTransformListener() {
+                @Override
+                public void onTransform(LabelCanvasLayout canvasLayout) {
+                    refreshViewport();
+                    refreshClusters(false);
+                }
+            });
+        } else {
+            setDetailLevel(LabelCanvasLayout.LEVEL_TEXT);
+        }
+        refreshClusters(false);
+    }
+
+    /**
+     * 设置是否聚合拥挤的标签
+     * <p>
+     * 开启后，一个区域内相互重叠的标签过多时会折叠为一个显示“+N”的气泡，放大或空间足够时重新展开。
+     * @param enabled true 表示开启；false 表示关闭
+     */
+    public void setClustering(boolean enabled) {
+        if (enabled == (clusterer != null)) {
+            return;
+        }
+        if (enabled) {
+            clusterer = new LabelClusterer(labelData, labelGrid, clusterCellSize(),
+                                          clusterThreshold);
+            clusterer.rebuild(clusterCellSize(), changedList);
+            applyClusterChanges();
+        } else {
+            // 展开所有气泡后再移除聚合
+            for (int i = 0; i < clusterer.size(); i++) {
+                LabelClusterer.Cluster cluster = clusterer.valueAt(i);
+                if (cluster.collapsed) {
+                    cluster.collapsed = false;
+                    changedList.add(cluster);
+                }
+            }
+            LabelClusterer old = clusterer;
+            clusterer = null;
+            applyClusterChanges();
+            old.clear();
+        }
+    }
+
+    /**
+     * 设置聚合阈值
+     * @param threshold 一个格子内相互重叠的标签达到这个数量时折叠，最小为2
+     */
+    public void setClusterThreshold(int threshold) {
+        this.clusterThreshold = threshold;
+        if (clusterer != null) {
+            clusterer.setThreshold(threshold);
+            refreshClusters(true);
+        }
+    }
+
+    /**
+     * 重新计算聚合，例如容器尺寸变化之后
+     * @param force 为false时只有格子大小变化才会重建
+     */
+    public void refreshClusters(boolean force) {
+        if (clusterer == null) {
+            return;
+        }
+        int cellSize = clusterCellSize();
+        if (force || cellSize != clusterer.cellSize()) {
+            clusterer.rebuild(cellSize, changedList);
+            applyClusterChanges();
+        }
+    }
+
+    /** 聚合格子在容器坐标系中的大小，按缩放比例的2次幂取整，避免缩放过程中频繁重建 */
+    private int clusterCellSize() {
+        int cellSize = dipToPixels(CLUSTER_CELL_DIP);
+        if (canvasLayout == null) {
+            return cellSize;
+        }
+        int level = Math.round((float) (Math.log(canvasLayout.getScale()) / Math.log(2)));
+        return Math.max(1, (int) (cellSize / Math.pow(2, level)));
+    }
+
+    /** 根据聚合状态的变化显示或隐藏成员标签和气泡 */
+    private void applyClusterChanges() {
+        if (virtualized) {
+            ensureViewport();
+        }
+        for (LabelClusterer.Cluster cluster : changedList) {
+            for (int i = 0; i < cluster.size(); i++) {
+                int index = cluster.members.get(i);
+                if (cluster.collapsed) {
+                    hideLabel(index);
+                } else {
+                    showLabel(index);
+                }
+            }
+            if (cluster.collapsed && isBubbleVisible(cluster)) {
+                showBubble(cluster);
+            } else {
+                hideBubble(cluster.key);
+            }
+        }
+        changedList.clear();
+    }
+
+    /**
+     * 从数据源拉取标签，只在每帧的时间预算内添加，容器饱和后自动停止；会取消上一个数据流
+     * @param source 数据源
+     * @return 数据流，可以用于取消
+     */
+    public LabelStream stream(LabelSource source) {
+        return stream(source, DEFAULT_PREFETCH, null);
+    }
+
+    /**
+     * 从数据源拉取标签
+     * @param source   数据源
+     * @param prefetch 最多预取的标签数量
+     * @return 数据流，可以用于取消
+     */
+    public LabelStream stream(LabelSource source, int prefetch) {
+        return stream(source, prefetch, null);
+    }
+
+    /**
+     * 从数据源拉取标签
+     * <p>
+     * 同步的数据源在返回之前就可能结束或出错，监听需要在开始拉取之前设置，因此在这里传入。
+     * @param source   数据源
+     * @param prefetch 最多预取的标签数量
+     * @param listener 流状态监听，可以为null
+     * @return 数据流，可以用于取消
+     */
+    public LabelStream stream(LabelSource source, int prefetch, LabelStream.Listener listener) {
+        finishClearing();
+        if (labelStream != null) {
+            labelStream.cancel();
+        }
+        labelStream = new LabelStream(this, source, layout, prefetch);
+        labelStream.setListener(listener);
+        labelStream.start();
+        return labelStream;
+    }
+
+    /**
+     * 设置饱和比例
+     * @param saturation 标签面积之和与可放置面积的比例，达到之后视为饱和
+     */
+    public void setSaturation(float saturation) {
+        this.saturation = saturation;
+    }
+
+    /** 可放置区域是否已经饱和 */
+    public boolean isSaturated() {
+        return placementArea > 0 && occupiedArea >= placementArea * saturation;
+    }
+
+    /**
+     * 在后台线程把所有标签导出为PNG图片，按固定大小的横条逐段绘制和写出，不访问视图
+     * @param out             输出流，导出完成后需要自行关闭
+     * @param scale           相对于标签容器尺寸的缩放比例，大于1时得到比屏幕更清晰的图片
+     * @param backgroundColor 背景颜色
+     * @param callback        结果回调
+     * @return 导出任务，可以用于取消
+     */
+    public LabelExporter export(OutputStream out, float scale, @ColorInt int backgroundColor,
+                                LabelExporter.Callback callback) {
+        // 在主线程计算好每个标签的字体像素值，后台线程只读快照
+        float[] sizes = new float[labelData.size()];
+        int[] textColors = new int[labelData.size()];
+        for (int i = 0; i < sizes.length; i++) {
+            textColors[i] = palette.textColorAt(labelData.palette(i));
+            sizes[i] = labelView.isAutoFit()
+                    ? labelView.getFittedTextSize(labelData.message(i))
+                    : spToPixels(labelData.textSize(i));
+        }
+        LabelExporter exporter = new LabelExporter(labelData, textColors, sizes,
+                                                   layout.getWidth(), layout.getHeight(),
+                                                   labelView.getTypeface(),
+                                                   labelView.getPaddingLeft(),
+                                                   dipToPixels(SHAPE_CORNER_DIP));
+        exporter.start(out, scale, backgroundColor, callback);
+        return exporter;
+    }
+
+    /**
+     * 设置标签点击监听
+     * <p>
+     * 点击由容器统一处理，通过空间索引找到触摸点下最上层的标签，标签本身不需要可点击，
+     * 因此在虚拟化模式和缩小后的简化绘制中同样有效。
+     * @param listener 点击监听
+     */
+    public void setOnLabelClickListener(OnLabelClickListener listener) {
+        this.clickListener = listener;
+        ensureGestureDetector();
+    }
+
+    public void setOnLabelLongClickListener(OnLabelLongClickListener listener) {
+        this.longClickListener = listener;
+        ensureGestureDetector();
+    }
+
+    /**
+     * 命中测试：找到容器坐标下最上层的标签
+     * @param x 容器内的横坐标
+     * @param y 容器内的纵坐标
+     * @return 标签下标，没有则返回-1
+     */
+    public int findLabelAt(float x, float y) {
+        return labelGrid.findTopmost((int) x, (int) y, hitOrder);
+    }
+
+    private void ensureGestureDetector() {
+        if (gestureDetector != null) {
+            return;
+        }
+        gestureDetector = new GestureDetector(layout.getContext(),
+                                              new GestureDetector.SimpleOnGestureListener() {
+            @Override
+            public boolean onDown(MotionEvent e) {
+                // 只有按在标签上才接收后续事件，其余触摸交给其他视图
+                return (clickListener != null || longClickListener != null)
+                        && findLabelAt(e.getX(), e.getY()) >= 0;
+            }
+
+            @Override
+            public boolean onSingleTapUp(MotionEvent e) {
+                int index = findLabelAt(e.getX(), e.getY());
+                if (index < 0 || clickListener == null) {
+                    return false;
+                }
+                clickListener.onLabelClick(LabelManager.this, index, labelData.message(index));
+                return true;
+            }
+
+            @Override
+            public void onLongPress(MotionEvent e) {
+                int index = findLabelAt(e.getX(), e.getY());
+                if (index >= 0 && longClickListener != null) {
+                    longClickListener.onLabelLongClick(LabelManager.this, index,
+                                                       labelData.message(index));
+                }
+            }
+        });
+        layout.setOnTouchListener(new View.OnTouchListener() {
+            @Override
+            public boolean onTouch(View v, MotionEvent event) {
+                return gestureDetector.onTouchEvent(event);
+            }
+        });
+    }
+
+    /**
+     * 设置调色板，已添加的标签按原来的颜色下标换为新调色板中的颜色
+     * @param palette 调色板
+     */
+    public void setPalette(LabelPalette palette) {
+        this.palette = palette;
+        labelData.recolor(palette);
+        if (virtualized) {
+            for (int i = 0; i < attachedList.size(); i++) {
+                bindLabel(attachedList.valueAt(i), attachedList.keyAt(i));
+            }
+        } else {
+            for (int i = 0; i < labelList.size(); i++) {
+                bindLabel(labelList.get(i), i);
+            }
+        }
+        if (canvasLayout != null) {
+            // 简化绘制同样使用新的颜色
+            canvasLayout.invalidate();
+        }
+    }
+
+    public LabelPalette getPalette() {
+        return palette;
+    }
+
+    /**
+     * 设置标签的阴影方式，大量标签时建议使用{@link LabelView.SHADOW#BAKED}
+     * @param shadow 阴影方式
+     */
+    public void setShadow(LabelView.SHADOW shadow) {
+        this.shadow = shadow;
+        applyShadow();
+    }
+
+    /**
+     * 设置关闭阴影的标签数量，超过之后所有标签不再绘制阴影
+     * @param shadowLimit 标签数量
+     */
+    public void setShadowLimit(int shadowLimit) {
+        this.shadowLimit = shadowLimit;
+        applyShadow();
+    }
+
+    private LabelView.SHADOW currentShadow() {
+        return labelData.size() > shadowLimit ? LabelView.SHADOW.NONE : shadow;
+    }
+
+    /** 将当前阴影方式应用到所有已创建的标签和气泡 */
+    private void applyShadow() {
+        LabelView.SHADOW current = currentShadow();
+        for (LabelView view : labelList) {
+            view.setShadow(current);
+        }
+        for (LabelView bubble : bubbleViewList) {
+            bubble.setShadow(current);
+        }
+    }
+
+    /** 指定下标的标签是否已折叠 */
+    private boolean isCollapsed(int index) {
+        return clusterer != null && clusterer.isCollapsed(index);
+    }
+
+    private void hideLabel(int index) {
+        if (virtualized) {
+            int i = attachedList.indexOfKey(index);
+            if (i >= 0) {
+                detachLabel(i);
+            }
+        } else if (index < labelList.size()) {
+            labelList.get(index).setVisibility(View.INVISIBLE);
+        }
+    }
+
+    private void showLabel(int index) {
+        if (isCollapsed(index)) {
+            return;
+        }
+        if (virtualized) {
+            if (attachedList.get(index) == null && labelData.intersects(index, viewport)) {
+                attachLabel(index);
+            }
+        } else if (detailLevel == LabelCanvasLayout.LEVEL_TEXT && index < labelList.size()) {
+            labelList.get(index).setVisibility(View.VISIBLE);
+        }
+    }
+
+    private boolean isBubbleVisible(LabelClusterer.Cluster cluster) {
+        return !viewsReleased
+                && (!virtualized || viewport.contains(cluster.centerX, cluster.centerY));
+    }
+
+    /** 显示或更新聚合气泡，气泡沿用初始标签的样式 */
+    private void showBubble(LabelClusterer.Cluster cluster) {
+        LabelView bubble = bubbleList.get(cluster.key);
+        if (bubble == null) {
+            bubble = recycledBubbleList.poll();
+            if (bubble == null) {
+                bubble = labelView.newBuilder()
+                        .position(LabelView.POSITION.TOP_LEFT)
+                        .useDip(false)
+                        .shadow(currentShadow())
+                        .build();
+                bubbleViewList.add(bubble);
+            }
+            bubbleList.put(cluster.key, bubble);
+        }
+        String message = "+" + cluster.size();
+        bubble.rebind(message, labelView.getBadgeBackgroundColor(),
+                      cluster.centerX - measureWidth(message) / 2,
+                      cluster.centerY - measureHeight() / 2);
+        bubble.show();
+        if (detailLevel != LabelCanvasLayout.LEVEL_TEXT) {
+            bubble.setVisibility(View.INVISIBLE);
+        }
+    }
+
+    private void hideBubble(int key) {
+        LabelView bubble = bubbleList.get(key);
+        if (bubble != null) {
+            bubbleList.remove(key);
+            bubble.setVisibility(View.GONE);
+            recycledBubbleList.push(bubble);
+        }
+    }
+
+    /** 虚拟化模式下按可视范围生成或回收气泡 */
+    private void refreshBubbles() {
+        if (clusterer == null) {
+            return;
+        }
+        for (int i = 0; i < clusterer.size(); i++) {
+            LabelClusterer.Cluster cluster = clusterer.valueAt(i);
+            if (cluster.collapsed && isBubbleVisible(cluster)) {
+                if (bubbleList.get(cluster.key) == null) {
+                    showBubble(cluster);
+                }
+            } else {
+                hideBubble(cluster.key);
+            }
+        }
+    }
+
+    private void setDetailLevel(int level) {
+        boolean wasText = detailLevel == LabelCanvasLayout.LEVEL_TEXT;
+        detailLevel = level;
+        boolean isText = level == LabelCanvasLayout.LEVEL_TEXT;
+        if (wasText == isText) {
+            return;
+        }
+        if (virtualized) {
+            refreshViewport();
+            return;
+        }
+        // 只在跨越文字阈值时切换一次，INVISIBLE不会触发重新布局
+        for (int i = 0; i < labelList.size(); i++) {
+            if (!isCollapsed(i)) {
+                labelList.get(i).setVisibility(isText ? View.VISIBLE : View.INVISIBLE);
+            }
+        }
+        for (int i = 0; i < bubbleList.size(); i++) {
+            bubbleList.valueAt(i).setVisibility(isText ? View.VISIBLE : View.INVISIBLE);
+        }
+    }
+
+    /** 绘制简化的标签，画布已经处于标签容器的坐标系 */
+    private void drawSimplified(Canvas canvas, int level, float scale) {
+        float dotRadius = dipToPixels(DOT_RADIUS_DIP) / scale;
+        float corner = dipToPixels(SHAPE_CORNER_DIP);
+        if (!canvasLayout.getVisibleRect(layout, simpleViewport)) {
+            return;
+        }
+        visibleList.clear();
+        labelGrid.query(simpleViewport, visibleList);
+        for (int i = 0; i < visibleList.size(); i++) {
+            int index = visibleList.get(i);
+            simpleBounds.set(labelData.x[index], labelData.y[index],
+                             labelData.x[index] + labelData.width[index],
+                             labelData.y[index] + labelData.height[index]);
+            drawSimplified(canvas, level, labelData.color(index), dotRadius, corner);
+        }
+    }
+
+    private void drawSimplified(Canvas canvas, int level, int color, float dotRadius,
+                                float corner) {
+        simplePaint.setColor(color);
+        if (level == LabelCanvasLayout.LEVEL_DOT) {
+            canvas.drawCircle(simpleBounds.exactCenterX(), simpleBounds.exactCenterY(), dotRadius,
+                              simplePaint);
+        } else {
+            simpleRect.set(simpleBounds);
+            canvas.drawRoundRect(simpleRect, corner, corner, simplePaint);
+        }
+    }
+
+    /** 画布的细节层次回调 */
+    private final class LabelLevelOfDetail implements LabelCanvasLayout.LevelOfDetail {
+        @Override
+        public void onLevelChanged(int level) {
+            setDetailLevel(level);
+        }
+
+        @Override
+        public void drawSimplified(Canvas canvas, int level, float scale) {
+            LabelManager.this.drawSimplified(canvas, level, scale);
+        }
+
+        @Override
+        public View getLabelLayout() {
+            return layout;
+        }
+    }
+
+    /**
+     * 清除所有标签
+     * @param animate true 表示可见的标签依次淡出后再清除
+     */
+    public void clear(boolean animate) {
+        if (!animate) {
+            clear();
+            return;
+        }
+        finishClearing();
+        batchList.clear();
+        collectVisible(0, batchList);
+        for (int i = 0; i < bubbleList.size(); i++) {
+            batchList.add(bubbleList.valueAt(i));
+        }
+        // 数据立即清除，现有的视图移交给淡出列表；淡出期间新添加的标签、数据流和任务都不受影响
+        fadingList.addAll(labelList);
+        fadingBubbleList.addAll(bubbleViewList);
+        labelList.clear();
+        bubbleViewList.clear();
+        forgetViews();
+        clearData();
+        clearing = true;
+        batchAnimator.animateOut(batchList, new Runnable() {
+            @Override
+            public void run() {
+                clearing = false;
+                removeViews(fadingList, fadingBubbleList);
+            }
+        });
+    }
+
+    /** 淡出清除还没有结束时立即完成 */
+    private void finishClearing() {
+        if (clearing) {
+            batchAnimator.end();
+        }
+    }
+
     public void clear() {
+        // 结束淡出时会移除淡出列表中的视图
+        batchAnimator.end();
+        removeViews(labelList, bubbleViewList);
+        forgetViews();
+        clearData();
+    }
+
+    /** 清除标签数据，取消数据流和排队的任务 */
+    private void clearData() {
+        if (labelStream != null) {
+            labelStream.cancel();
+            labelStream = null;
+        }
+        if (engine != null) {
+            engine.cancel(this);
+        }
+        occupiedArea = 0;
         otherList.clear();
-        for (LabelView labelView : labelList) {
-            layout.removeView(labelView);
+        labelData.clear();
+        labelGrid.clear();
+        if (clusterer != null) {
+            clusterer.clear();
         }
-        labelList.clear();
     }
 
+    /** 移除并清空指定的标签和气泡视图 */
+    private void removeViews(List<LabelView> labels, List<LabelView> bubbles) {
+        for (LabelView labelView : labels) {
+            if (engine != null) {
+                // 放回共享对象池，其他容器可以直接复用
+                engine.recycleView(labelView);
+            } else {
+                layout.removeView(labelView);
+            }
+        }
+        labels.clear();
+        for (LabelView bubble : bubbles) {
+            layout.removeView(bubble);
+        }
+        bubbles.clear();
+    }
+
+    /** 清空下标到视图的映射和回收列表，视图本身由调用方处理 */
+    private void forgetViews() {
+        attachedList.clear();
+        attachOrder.clear();
+        attachCounter = 0;
+        recycledList.clear();
+        bubbleList.clear();
+        recycledBubbleList.clear();
+    }
+
+    /** 容器离开窗口：只释放视图，标签数据、空间索引、聚合和需要避开的区域都保留 */
+    private void releaseViews() {
+        batchAnimator.end();
+        removeViews(labelList, bubbleViewList);
+        forgetViews();
+        viewsReleased = true;
+        viewportValid = false;
+    }
+
+    /** 容器重新进入窗口：按保留的标签数据重新生成视图 */
+    private void restoreViews() {
+        if (!viewsReleased) {
+            return;
+        }
+        viewsReleased = false;
+        if (virtualized) {
+            refreshViewport();
+            return;
+        }
+        for (int index = labelList.size(); index < labelData.size(); index++) {
+            LabelView view = createLabel(index);
+            view.show();
+            if (detailLevel != LabelCanvasLayout.LEVEL_TEXT || isCollapsed(index)) {
+                view.setVisibility(View.INVISIBLE);
+            }
+            labelList.add(view);
+        }
+        refreshBubbles();
+    }
+
+    /** 区域距离容器边缘的距离 */
+    private static final int REGION_INSET_DIP = 16;
+    /** 区域距离容器顶部的距离，留出状态栏的高度 */
+    private static final int REGION_TOP_INSET_DIP = 36;
+    /** 区域与占位视图、需要避开的区域之间的间隔 */
+    private static final int REGION_GAP_DIP = 20;
+
     /** 通过下标和占位视图创建可添加的空间 */
     private Rect createSpace(int i, Rect viewRect) {
         // 占位视图范围
@@ -79,65 +946,448 @@ public final class LabelManager {
         int vR = viewRect.right;
         int vT = viewRect.top;
         int vB = viewRect.bottom;
+        int inset = dipToPixels(REGION_INSET_DIP);
+        int topInset = dipToPixels(REGION_TOP_INSET_DIP);
         switch (i) {
             case 0:
                 // 取水平方向的一半
-                return new Rect(container.left + dipToPixels(16),
-                                container.top + dipToPixels(36),
+                return new Rect(container.left + inset,
+                                container.top + topInset,
                                 (container.left + vL) / 2,
-                                container.bottom - dipToPixels(16));
+                                container.bottom - inset);
             case 1:
-                return new Rect(container.left + dipToPixels(16),
+                return new Rect(container.left + inset,
                                 vB,
                                 (container.right + vR) / 2,
-                                container.bottom - dipToPixels(16));
+                                container.bottom - inset);
             case 2:
                 // 取水平方向的一半
                 return new Rect(vR,
-                                container.top + dipToPixels(16),
+                                container.top + inset,
                                 (container.right + vR) / 2,
-                                container.bottom - dipToPixels(16));
+                                container.bottom - inset);
             case 3:
-                return new Rect(container.left + dipToPixels(16),
-                                container.top + dipToPixels(36),
+                return new Rect(container.left + inset,
+                                container.top + topInset,
                                 (container.right + vR) / 2,
-                                vT - dipToPixels(20));
+                                vT - dipToPixels(REGION_GAP_DIP));
         }
         return container;
     }
 
+    /**
+     * 设置词云的字体大小范围
+     * @param minSize 权重最小的标签字体大小：sp单位
+     * @param maxSize 权重最大的标签字体大小：sp单位
+     */
+    public void setWordCloudTextSize(int minSize, int maxSize) {
+        this.wordCloudMinSize = Math.min(minSize, maxSize);
+        this.wordCloudMaxSize = Math.max(minSize, maxSize);
+    }
+
+    /**
+     * 按权重添加词云
+     * <p>
+     * 字体大小随权重线性变化，按测量尺寸从大到小沿螺线放置，避开占位视图、需要避开的区域和已有的标签；
+     * 放不下的标签会被丢弃。
+     * @param messages 文字集合
+     * @param weights  与文字一一对应的权重
+     * @param animate  true 表示新添加的可见标签依次入场
+     * @return 实际放置的标签数量
+     */
+    public int addWordCloud(List<String> messages, float[] weights, boolean animate) {
+        finishClearing();
+        int count = Math.min(messages.size(), weights.length);
+        Rect origin = container != null ? container : getRect(layout);
+        if (count == 0 || origin.isEmpty()) {
+            return 0;
+        }
+        WordCloudLayout cloud = new WordCloudLayout(origin.width(), origin.height(),
+                                                    dipToPixels(WORD_CLOUD_CELL_DIP));
+        if (holder != null) {
+            cloud.occupy(holder.left - origin.left, holder.top - origin.top,
+                         holder.right - origin.left, holder.bottom - origin.top);
+        }
+        for (Rect other : otherList) {
+            cloud.occupy(other.left - origin.left, other.top - origin.top,
+                         other.right - origin.left, other.bottom - origin.top);
+        }
+        for (int i = 0; i < labelData.size(); i++) {
+            cloud.occupy(labelData.x[i], labelData.y[i], labelData.x[i] + labelData.width[i],
+                         labelData.y[i] + labelData.height[i]);
+        }
+        float minWeight = Float.MAX_VALUE;
+        float maxWeight = -Float.MAX_VALUE;
+        for (int i = 0; i < count; i++) {
+            minWeight = Math.min(minWeight, weights[i]);
+            maxWeight = Math.max(maxWeight, weights[i]);
+        }
+        // 字体大小取整数sp，同一大小的行高只测量一次
+        int range = wordCloudMaxSize - wordCloudMinSize;
+        int[] heightBySize = new int[range + 1];
+        int[] sizes = new int[count];
+        int[] widths = new int[count];
+        int[] heights = new int[count];
+        float baseSize = measurePaint.getTextSize();
+        for (int i = 0; i < count; i++) {
+            float fraction = maxWeight > minWeight
+                    ? (weights[i] - minWeight) / (maxWeight - minWeight) : 1;
+            int size = wordCloudMinSize + Math.round(range * fraction);
+            measurePaint.setTextSize(spToPixels(size));
+            if (heightBySize[size - wordCloudMinSize] == 0) {
+                heightBySize[size - wordCloudMinSize] = measureHeight();
+            }
+            sizes[i] = size;
+            widths[i] = measureWidth(messages.get(i));
+            heights[i] = heightBySize[size - wordCloudMinSize];
+        }
+        measurePaint.setTextSize(baseSize);
+        int[] x = new int[count];
+        int[] y = new int[count];
+        boolean[] placed = cloud.layout(widths, heights, count, x, y);
+        int from = labelData.size();
+        for (int i = 0; i < count; i++) {
+            if (placed[i]) {
+                addLabel(messages.get(i), x[i], y[i], widths[i], heights[i], sizes[i]);
+            }
+        }
+        if (animate) {
+            batchList.clear();
+            collectVisible(from, batchList);
+            batchAnimator.animateIn(batchList);
+        }
+        return labelData.size() - from;
+    }
+
+    /**
+     * 批量添加标签
+     * @param messages 文字集合
+     * @param animate  true 表示新添加的可见标签依次入场
+     */
+    public void addLabels(List<String> messages, boolean animate) {
+        finishClearing();
+        int from = labelData.size();
+        for (String message : messages) {
+            addLabel(message);
+        }
+        if (animate) {
+            batchList.clear();
+            collectVisible(from, batchList);
+            batchAnimator.animateIn(batchList);
+        }
+    }
+
+    /**
+     * 分帧批量添加标签
+     * <p>
+     * 关联了引擎时每帧只在引擎的时间预算内添加，可见的容器优先，全部添加后再播放入场动画；
+     * 没有关联引擎时与{@link #addLabels(List, boolean)}相同。
+     * @param messages 文字集合
+     * @param animate  true 表示新添加的可见标签依次入场
+     */
+    public void enqueueLabels(List<String> messages, final boolean animate) {
+        if (engine == null) {
+            addLabels(messages, animate);
+            return;
+        }
+        if (messages.isEmpty()) {
+            return;
+        }
+        finishClearing();
+        final List<String> pending = new ArrayList<>(messages);
+        boolean queued = engine.enqueue(this, new LabelEngine.Task() {
+            private int next;
+            /** 第一步执行时的标签数量，之前排队的任务可能也添加了标签 */
+            private int from;
+
+            @Override
+            public boolean step() {
+                if (next == 0) {
+                    from = labelData.size();
+                }
+                addLabel(pending.get(next++));
+                if (next < pending.size()) {
+                    return true;
+                }
+                if (animate) {
+                    batchList.clear();
+                    collectVisible(from, batchList);
+                    batchAnimator.animateIn(batchList);
+                }
+                return false;
+            }
+        });
+        if (!queued) {
+            // 引擎已经不再调度这个容器，直接添加
+            addLabels(pending, animate);
+        }
+    }
+
+    /** 标签数量，包括虚拟化模式下没有生成视图的标签 */
+    public int getLabelCount() {
+        return labelData.size();
+    }
+
+    /** 已创建的标签视图数量，虚拟化模式下即视图池的大小；关联引擎时为正在使用的视图数量 */
+    public int getViewCount() {
+        return labelList.size();
+    }
+
+    public LabelBatchAnimator getBatchAnimator() {
+        return batchAnimator;
+    }
+
+    /** 收集下标不小于from的、当前可见的标签视图 */
+    private void collectVisible(int from, List<LabelView> out) {
+        for (int index = from; index < labelData.size(); index++) {
+            LabelView view = virtualized ? attachedList.get(index)
+                    : index < labelList.size() ? labelList.get(index) : null;
+            if (view != null && view.getVisibility() == View.VISIBLE) {
+                out.add(view);
+            }
+        }
+    }
+
     public void addLabel(String message) {
-        LabelView.Builder builder = labelView.newBuilder()
-                .message(message)
-                .position(LabelView.POSITION.TOP_LEFT)
-                .badgeColor(getRandomColor())
-                .useDip(false);
+        finishClearing();
         // 获取不在占位资源范围内标签的随机坐标
         int[] randomLocation = getNotHolderRect(getRandomIndex());
-        // 生成View
-        LabelView labelView = builder
-                .margin(randomLocation[0], randomLocation[1])
+        float baseSize = measurePaint.getTextSize();
+        if (labelView.isAutoFit()) {
+            // 自适应字体时按每个标签实际的字体大小估算尺寸
+            measurePaint.setTextSize(labelView.getFittedTextSize(message));
+        }
+        int width = measureWidth(message);
+        int height = measureHeight();
+        measurePaint.setTextSize(baseSize);
+        addLabel(message, randomLocation[0], randomLocation[1], width, height,
+                 labelView.getBadgeSize());
+    }
+
+    /**
+     * 在指定位置添加标签
+     * @param textSize 字体大小：sp单位
+     */
+    private void addLabel(String message, int x, int y, int width, int height, float textSize) {
+        if (virtualized) {
+            addVirtualLabel(message, x, y, width, height, textSize);
+            return;
+        }
+        int style = palette.randomIndex();
+        int color = palette.colorAt(style);
+        int index = labelData.add(message, x, y, width, height, style, color, textSize);
+        if (!viewsReleased) {
+            // 生成View
+            LabelView labelView = createLabel(index);
+            labelView.show();
+            if (detailLevel != LabelCanvasLayout.LEVEL_TEXT) {
+                // 缩小状态下由画布绘制简化标签
+                labelView.setVisibility(View.INVISIBLE);
+            }
+            labelList.add(labelView);
+        }
+        labelGrid.insert(index);
+        occupiedArea += (long) labelData.width[index] * labelData.height[index];
+        if (labelData.size() == shadowLimit + 1) {
+            applyShadow();
+        }
+        if (clusterer != null) {
+            clusterer.add(index, changedList);
+            applyClusterChanges();
+        }
+    }
+
+    /** 虚拟化模式下只记录标签数据，视图由可视范围决定是否生成 */
+    private void addVirtualLabel(String message, int x, int y, int width, int height,
+                                 float textSize) {
+        int style = palette.randomIndex();
+        int index = labelData.add(message, x, y, width, height, style, palette.colorAt(style),
+                                  textSize);
+        labelGrid.insert(index);
+        occupiedArea += (long) labelData.width[index] * labelData.height[index];
+        if (labelData.size() == shadowLimit + 1) {
+            applyShadow();
+        }
+        if (clusterer != null) {
+            clusterer.add(index, changedList);
+            applyClusterChanges();
+        }
+        if (ensureViewport() && labelData.intersects(index, viewport) && !isCollapsed(index)
+                && attachedList.get(index) == null) {
+            attachLabel(index);
+        }
+    }
+
+    /** 不生成视图，使用与标签相同的画笔和内距估算其宽度 */
+    private int measureWidth(String message) {
+        int textWidth = engine != null ? engine.measureWidth(measurePaint, message)
+                : (int) Math.ceil(measurePaint.measureText(message));
+        return textWidth + labelView.getPaddingLeft() + labelView.getPaddingRight();
+    }
+
+    private int measureHeight() {
+        if (engine != null) {
+            return engine.lineHeight(measurePaint);
+        }
+        Paint.FontMetricsInt fm = measurePaint.getFontMetricsInt();
+        return fm.bottom - fm.top;
+    }
+
+    /**
+     * 计算需要生成视图的范围：可视范围加上边距
+     * @return 是否需要生成视图
+     */
+    private boolean computeViewport() {
+        viewportValid = true;
+        boolean visible;
+        if (canvasLayout != null) {
+            // 缩小后只绘制简化标签，不需要任何视图
+            visible = detailLevel == LabelCanvasLayout.LEVEL_TEXT
+                    && canvasLayout.getVisibleRect(layout, viewport);
+        } else {
+            visible = layout.getLocalVisibleRect(viewport);
+        }
+        if (!visible) {
+            viewport.setEmpty();
+            return false;
+        }
+        int margin = dipToPixels(VIEWPORT_MARGIN_DIP);
+        viewport.inset(-margin, -margin);
+        return true;
+    }
+
+    /**
+     * 沿用缓存的可视范围，失效时才重新计算
+     * @return 是否需要生成视图
+     */
+    private boolean ensureViewport() {
+        if (!viewportValid) {
+            return computeViewport();
+        }
+        return !viewport.isEmpty();
+    }
+
+    /** 根据当前可视范围生成新进入的标签，回收移出的标签 */
+    private void refreshViewport() {
+        if (!virtualized || viewsReleased) {
+            return;
+        }
+        computeViewport();
+        // 先回收，再生成，使回收的视图能被立即复用
+        for (int i = attachedList.size() - 1; i >= 0; i--) {
+            int index = attachedList.keyAt(i);
+            if (viewport.isEmpty() || !labelData.intersects(index, viewport)) {
+                detachLabel(i);
+            }
+        }
+        visibleList.clear();
+        labelGrid.query(viewport, visibleList);
+        for (int i = 0; i < visibleList.size(); i++) {
+            int index = visibleList.get(i);
+            if (attachedList.get(index) == null && !isCollapsed(index)) {
+                attachLabel(index);
+            }
+        }
+        refreshBubbles();
+    }
+
+    /** 回收attachedList中第i个视图 */
+    private void detachLabel(int i) {
+        LabelView view = attachedList.valueAt(i);
+        attachOrder.delete(attachedList.keyAt(i));
+        attachedList.removeAt(i);
+        if (engine != null) {
+            labelList.remove(view);
+            engine.recycleView(view);
+            return;
+        }
+        view.setVisibility(View.GONE);
+        recycledList.push(view);
+    }
+
+    /** 为指定下标的标签绑定视图，优先复用已回收的视图 */
+    private void attachLabel(int index) {
+        if (engine != null) {
+            LabelView view = obtainLabel(index);
+            view.show();
+            labelList.add(view);
+            attachedList.put(index, view);
+            // 对象池中的视图重新添加到父容器的末尾
+            attachOrder.put(index, attachCounter++);
+            return;
+        }
+        LabelView view = recycledList.poll();
+        if (view == null) {
+            view = labelView.newBuilder()
+                    .position(LabelView.POSITION.TOP_LEFT)
+                    .useDip(false)
+                    .shadow(currentShadow())
+                    .build();
+            labelList.add(view);
+        } else {
+            // 复用的视图保留原来的位置，移到最上层使绘制顺序与生成顺序一致
+            view.bringToFront();
+        }
+        bindLabel(view, index);
+        view.show();
+        attachedList.put(index, view);
+        attachOrder.put(index, attachCounter++);
+    }
+
+    /** 非虚拟化模式下为指定下标的标签生成视图 */
+    private LabelView createLabel(int index) {
+        if (engine != null) {
+            return obtainLabel(index);
+        }
+        int style = labelData.palette(index);
+        return labelView.newBuilder()
+                .message(labelData.message(index))
+                .position(LabelView.POSITION.TOP_LEFT)
+                .useDip(false)
+                .shadow(currentShadow())
+                .textSize(Math.round(labelData.textSize(index)))
+                .badgeColor(labelData.color(index))
+                .textColor(palette.textColorAt(style))
+                .margin(labelData.x[index], labelData.y[index])
                 .build();
-        labelView.show();
-        labelList.add(labelView);
+    }
+
+    /** 从引擎的共享对象池获取视图并绑定指定下标的标签数据 */
+    private LabelView obtainLabel(int index) {
+        String message = labelData.message(index);
+        LabelView view = engine.obtainView(labelView.newBuilder()
+                                                   .message(message)
+                                                   .position(LabelView.POSITION.TOP_LEFT)
+                                                   .useDip(false)
+                                                   .shadow(currentShadow()));
+        bindLabel(view, index, message);
+        return view;
+    }
+
+    /** 把指定下标的标签数据绑定到视图上 */
+    private void bindLabel(LabelView view, int index) {
+        bindLabel(view, index, labelData.message(index));
+    }
+
+    private void bindLabel(LabelView view, int index, String message) {
+        view.rebind(message, labelData.color(index), palette.textColorAt(labelData.palette(index)),
+                    labelData.textSize(index), labelData.x[index], labelData.y[index]);
     }
 
     private int dipToPixels(int dip) {
-        Resources r = labelView.getContext().getResources();
-        float px = TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, dip, r
-                .getDisplayMetrics());
-        return (int) px;
+        return dimensions.dip(dip);
     }
 
-    private Rect getRect(View view) {
-        Rect rect = new Rect();
-        view.getGlobalVisibleRect(rect);
-        return rect;
+    private float spToPixels(float sp) {
+        return dimensions.sp(sp);
     }
 
-    /** 随机颜色 */
-    private int getRandomColor() {
-        return Color.rgb((int) (Math.random() * 255), (int) (Math.random() * 255), (int) (Math.random() * 255));
+    /** 视图在窗口中的完整范围，不受屏幕和父容器裁剪，可滚动容器中超出屏幕的部分同样可以放置标签 */
+    private Rect getRect(View view) {
+        int[] location = new int[2];
+        view.getLocationInWindow(location);
+        return new Rect(location[0], location[1], location[0] + view.getWidth(),
+                        location[1] + view.getHeight());
     }
 
     /**
@@ -155,7 +1405,7 @@ public final class LabelManager {
             // 范围是否包含需要避开的区域
             if (rect.bottom > other.top) {
                 // 目前是粗略的避开
-                rect = new Rect(rect.left, rect.top, rect.right, other.top - dipToPixels(20));
+                rect = new Rect(rect.left, rect.top, rect.right, other.top - dipToPixels(REGION_GAP_DIP));
             }
         }
         // 范围内随机，约定起点即划分坐标区域，随后减去目标的顶点即等于相对于左上角的margin值
@@ -0,0 +1,36 @@
+package cn.qiang.zhang.randomlabel;
+
+import java.util.List;
+
+/**
+ * 标签数据源
+ * <p>
+ * 拉取式的分页数据源：{@link LabelManager}只在界面有余力时才请求下一批，
+ * 实现者可以在任意线程加载，完成后回调即可。
+ */
+public interface LabelSource {
+
+    /** 加载结果回调，可以在任意线程调用 */
+    interface Callback {
+        /**
+         * 一批标签加载完成
+         * @param messages 标签文字
+         * @param hasMore  是否还有更多
+         */
+        void onLoaded(List<String> messages, boolean hasMore);
+
+        /**
+         * 加载失败，停止拉取
+         * @param error 错误
+         */
+        void onError(Throwable error);
+    }
+
+    /**
+     * 请求下一批标签，上一次请求回调之前不会再次调用
+     * @param count    建议数量，不会超过预取上限
+     * @param callback 回调
+     */
+    void request(int count, Callback callback);
+
+}
@@ -0,0 +1,222 @@
+package cn.qiang.zhang.randomlabel;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v4.view.ViewCompat;
+import android.view.View;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * 标签流
+ * <p>
+ * 从{@link LabelSource}按需拉取标签并逐帧添加到{@link LabelManager}：缓冲区最多预取固定数量，
+ * 每一帧只在时间预算内添加，缓冲区有空余时才请求下一批；容器的放置空间饱和后停止拉取。
+ * 容器关联了{@link LabelEngine}时，逐个添加的任务交给引擎与其他容器统一调度。
+ */
+public final class LabelStream {
+    /** 每帧添加标签的时间预算 */
+    private static final long DEFAULT_FRAME_BUDGET_NANOS = 4000000L;
+
+    /** 流状态监听，在主线程回调 */
+    public interface Listener {
+        /**
+         * 拉取结束
+         * @param saturated true 表示因为容器饱和而停止；false 表示数据源已经没有更多
+         */
+        void onComplete(boolean saturated);
+
+        void onError(Throwable error);
+    }
+
+    private final LabelManager manager;
+    private final LabelSource source;
+    private final View host;
+    private final int prefetch;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Deque<String> buffer = new ArrayDeque<>();
+
+    private long frameBudgetNanos = DEFAULT_FRAME_BUDGET_NANOS;
+    private Listener listener;
+    /** 是否有请求尚未回调 */
+    private boolean requesting;
+    private boolean hasMore = true;
+    private boolean scheduled;
+    private boolean finished;
+
+    private final Runnable frame = new Runnable() {
+        @Override
+        public void run() {
+            scheduled = false;
+            onFrame();
+        }
+    };
+
+    /** 关联引擎时的任务：每一步添加一个标签 */
+    private final LabelEngine.Task task = new LabelEngine.Task() {
+        @Override
+        public boolean step() {
+            if (finished) {
+                return false;
+            }
+            if (!buffer.isEmpty()) {
+                manager.addLabel(buffer.poll());
+            }
+            if (manager.isSaturated()) {
+                complete(true);
+                return false;
+            }
+            if (buffer.isEmpty()) {
+                scheduled = false;
+                pull();
+                return false;
+            }
+            if (buffer.size() <= prefetch / 2) {
+                pull();
+            }
+            return true;
+        }
+    };
+
+    private final LabelSource.Callback callback = new LabelSource.Callback() {
+        @Override
+        public void onLoaded(final List<String> messages, final boolean more) {
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    requesting = false;
+                    if (finished) {
+                        return;
+                    }
+                    buffer.addAll(messages);
+                    hasMore = more;
+                    scheduleFrame();
+                }
+            });
+        }
+
+        @Override
+        public void onError(final Throwable error) {
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    requesting = false;
+                    if (finished) {
+                        return;
+                    }
+                    finished = true;
+                    buffer.clear();
+                    if (listener != null) {
+                        listener.onError(error);
+                    }
+                }
+            });
+        }
+    };
+
+    LabelStream(LabelManager manager, LabelSource source, View host, int prefetch) {
+        this.manager = manager;
+        this.source = source;
+        this.host = host;
+        this.prefetch = Math.max(1, prefetch);
+    }
+
+    public LabelStream setListener(Listener listener) {
+        this.listener = listener;
+        return this;
+    }
+
+    /**
+     * 设置每帧添加标签的时间预算，关联了引擎时使用引擎的预算
+     * @param millis 毫秒
+     */
+    public LabelStream setFrameBudget(float millis) {
+        this.frameBudgetNanos = (long) (millis * 1000000L);
+        return this;
+    }
+
+    /** 停止拉取，已请求的结果会被丢弃 */
+    public void cancel() {
+        finished = true;
+        buffer.clear();
+        host.removeCallbacks(frame);
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+
+    /** 缓冲区中等待添加的标签数量 */
+    public int getBufferedCount() {
+        return buffer.size();
+    }
+
+    void start() {
+        pull();
+    }
+
+    /** 缓冲区有空余且容器未饱和时请求下一批 */
+    private void pull() {
+        if (finished || requesting) {
+            return;
+        }
+        if (manager.isSaturated()) {
+            complete(true);
+            return;
+        }
+        if (!hasMore) {
+            if (buffer.isEmpty()) {
+                complete(false);
+            }
+            return;
+        }
+        int room = prefetch - buffer.size();
+        if (room > 0) {
+            requesting = true;
+            source.request(room, callback);
+        }
+    }
+
+    /** 在时间预算内从缓冲区添加标签 */
+    private void onFrame() {
+        if (finished) {
+            return;
+        }
+        long start = System.nanoTime();
+        while (!buffer.isEmpty() && !manager.isSaturated()
+                && System.nanoTime() - start < frameBudgetNanos) {
+            manager.addLabel(buffer.poll());
+        }
+        if (manager.isSaturated()) {
+            complete(true);
+            return;
+        }
+        if (!buffer.isEmpty()) {
+            scheduleFrame();
+        }
+        pull();
+    }
+
+    private void scheduleFrame() {
+        if (scheduled || finished) {
+            return;
+        }
+        scheduled = true;
+        LabelEngine engine = manager.getEngine();
+        if (engine == null || !engine.enqueue(manager, task)) {
+            // 没有引擎，或者引擎已经不再调度这个容器，自己逐帧添加
+            ViewCompat.postOnAnimation(host, frame);
+        }
+    }
+
+    private void complete(boolean saturated) {
+        finished = true;
+        buffer.clear();
+        if (listener != null) {
+            listener.onComplete(saturated);
+        }
+    }
+
+}
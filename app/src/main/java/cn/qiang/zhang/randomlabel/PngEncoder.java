@@ -0,0 +1,145 @@
+package cn.qiang.zhang.randomlabel;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * 流式PNG编码
+ * <p>
+ * 按行写入像素，压缩后的数据攒满一块就作为一个IDAT块写出，内存占用只与行宽有关，与图片高度无关。
+ * 输出为不透明的8位RGB。压缩器持有本地内存，无论是否成功都需要调用{@link #end()}。
+ */
+final class PngEncoder {
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    /** 单个IDAT块的最大长度 */
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final OutputStream out;
+    private final int width;
+    private final CRC32 crc = new CRC32();
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+    private final ChunkOutputStream chunkOut = new ChunkOutputStream();
+    private final DeflaterOutputStream deflaterOut;
+    /** 一行像素：过滤类型 + RGB */
+    private final byte[] row;
+    private final byte[] header = new byte[8];
+
+    PngEncoder(OutputStream out, int width, int height) throws IOException {
+        this.out = out;
+        this.width = width;
+        this.row = new byte[1 + width * 3];
+        this.deflaterOut = new DeflaterOutputStream(chunkOut, deflater, CHUNK_SIZE);
+        try {
+            out.write(SIGNATURE);
+            byte[] ihdr = new byte[13];
+            writeInt(ihdr, 0, width);
+            writeInt(ihdr, 4, height);
+            // 位深8，颜色类型2（RGB），默认压缩、过滤，不隔行
+            ihdr[8] = 8;
+            ihdr[9] = 2;
+            writeChunk("IHDR", ihdr, 0, ihdr.length);
+        } catch (IOException | RuntimeException e) {
+            // 调用方拿不到实例，在这里释放
+            end();
+            throw e;
+        }
+    }
+
+    /**
+     * 写入若干行像素
+     * @param pixels ARGB像素，按行存放
+     * @param offset 第一行在数组中的起点
+     * @param rows   行数
+     */
+    void writeRows(int[] pixels, int offset, int rows) throws IOException {
+        for (int r = 0; r < rows; r++) {
+            int start = offset + r * width;
+            // 过滤类型0，不做行预测
+            row[0] = 0;
+            for (int x = 0, i = 1; x < width; x++) {
+                int pixel = pixels[start + x];
+                row[i++] = (byte) (pixel >> 16);
+                row[i++] = (byte) (pixel >> 8);
+                row[i++] = (byte) pixel;
+            }
+            deflaterOut.write(row, 0, row.length);
+        }
+    }
+
+    /** 写完所有行后调用，不会关闭输出流 */
+    void finish() throws IOException {
+        try {
+            deflaterOut.finish();
+            chunkOut.flushChunk();
+            writeChunk("IEND", row, 0, 0);
+            out.flush();
+        } finally {
+            end();
+        }
+    }
+
+    /** 释放压缩器，可以重复调用；之后不能再写入 */
+    void end() {
+        deflater.end();
+    }
+
+    private void writeChunk(String type, byte[] data, int offset, int length) throws IOException {
+        writeInt(header, 0, length);
+        for (int i = 0; i < 4; i++) {
+            header[4 + i] = (byte) type.charAt(i);
+        }
+        out.write(header, 0, 8);
+        out.write(data, offset, length);
+        crc.reset();
+        crc.update(header, 4, 4);
+        crc.update(data, offset, length);
+        writeInt(header, 0, (int) crc.getValue());
+        out.write(header, 0, 4);
+    }
+
+    private static void writeInt(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) (value >>> 24);
+        buffer[offset + 1] = (byte) (value >>> 16);
+        buffer[offset + 2] = (byte) (value >>> 8);
+        buffer[offset + 3] = (byte) value;
+    }
+
+    /** 把压缩数据切分为IDAT块 */
+    private final class ChunkOutputStream extends OutputStream {
+        private final byte[] buffer = new byte[CHUNK_SIZE];
+        private int count;
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == buffer.length) {
+                flushChunk();
+            }
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (count == buffer.length) {
+                    flushChunk();
+                }
+                int n = Math.min(len, buffer.length - count);
+                System.arraycopy(b, off, buffer, count, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        void flushChunk() throws IOException {
+            if (count > 0) {
+                writeChunk("IDAT", buffer, 0, count);
+                count = 0;
+            }
+        }
+    }
+
+}
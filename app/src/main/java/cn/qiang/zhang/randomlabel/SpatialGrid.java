@@ -0,0 +1,149 @@
+package cn.qiang.zhang.randomlabel;
+
+import android.graphics.Rect;
+import android.util.SparseArray;
+
+/**
+ * 均匀网格空间索引
+ * <p>
+ * 把容器划分为固定大小的格子，每个格子记录与之相交的标签下标，按矩形范围查询时只需遍历覆盖到的格子，
+ * 查询代价与可视范围成正比，而不是与标签总数成正比。
+ */
+final class SpatialGrid {
+    private final LabelData data;
+    private final int cellSize;
+    /** 格子键 → 标签下标列表 */
+    private final SparseArray<IntList> cells = new SparseArray<>();
+
+    SpatialGrid(LabelData data, int cellSize) {
+        this.data = data;
+        this.cellSize = Math.max(1, cellSize);
+    }
+
+    /** 将指定下标的标签放入其覆盖到的所有格子 */
+    void insert(int index) {
+        int l = cell(data.x[index]);
+        int t = cell(data.y[index]);
+        int r = cell(data.x[index] + data.width[index] - 1);
+        int b = cell(data.y[index] + data.height[index] - 1);
+        for (int cx = l; cx <= r; cx++) {
+            for (int cy = t; cy <= b; cy++) {
+                int key = key(cx, cy);
+                IntList list = cells.get(key);
+                if (list == null) {
+                    list = new IntList(4);
+                    cells.put(key, list);
+                }
+                list.add(index);
+            }
+        }
+    }
+
+    /** 将指定下标的标签从其覆盖到的所有格子中移除 */
+    void remove(int index) {
+        int l = cell(data.x[index]);
+        int t = cell(data.y[index]);
+        int r = cell(data.x[index] + data.width[index] - 1);
+        int b = cell(data.y[index] + data.height[index] - 1);
+        for (int cx = l; cx <= r; cx++) {
+            for (int cy = t; cy <= b; cy++) {
+                IntList list = cells.get(key(cx, cy));
+                if (list != null) {
+                    list.removeValue(index);
+                }
+            }
+        }
+    }
+
+    /**
+     * 查询与矩形范围相交的标签，每个标签只输出一次
+     * @param rect 查询范围
+     * @param out  输出的标签下标
+     */
+    void query(Rect rect, IntList out) {
+        if (rect.isEmpty()) {
+            return;
+        }
+        int l = cell(rect.left);
+        int t = cell(rect.top);
+        int r = cell(rect.right - 1);
+        int b = cell(rect.bottom - 1);
+        for (int cx = l; cx <= r; cx++) {
+            for (int cy = t; cy <= b; cy++) {
+                IntList list = cells.get(key(cx, cy));
+                if (list == null) {
+                    continue;
+                }
+                for (int i = 0; i < list.size(); i++) {
+                    int index = list.get(i);
+                    // 标签可能跨越多个格子，只在它与查询范围重叠的第一个格子中输出
+                    if (cx == Math.max(l, cell(data.x[index]))
+                            && cy == Math.max(t, cell(data.y[index]))
+                            && data.intersects(index, rect)) {
+                        out.add(index);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 查询包含指定点的最上层标签
+     * @param x     横坐标
+     * @param y     纵坐标
+     * @param order 绘制顺序
+     * @return 标签下标，没有则返回-1
+     */
+    int findTopmost(int x, int y, Order order) {
+        IntList list = cells.get(key(cell(x), cell(y)));
+        if (list == null) {
+            return -1;
+        }
+        int topmost = -1;
+        int topOrder = -1;
+        for (int i = 0; i < list.size(); i++) {
+            int index = list.get(i);
+            if (!contains(index, x, y)) {
+                continue;
+            }
+            int current = order.order(index);
+            if (current > topOrder) {
+                topmost = index;
+                topOrder = current;
+            }
+        }
+        return topmost;
+    }
+
+    /** 命中测试使用的绘制顺序 */
+    interface Order {
+        /**
+         * @param index 标签下标
+         * @return 绘制顺序，越大越靠上；负数表示跳过这个标签，例如已折叠的标签
+         */
+        int order(int index);
+    }
+
+    private boolean contains(int index, int x, int y) {
+        return x >= data.x[index] && x < data.x[index] + data.width[index]
+                && y >= data.y[index] && y < data.y[index] + data.height[index];
+    }
+
+    void clear() {
+        cells.clear();
+    }
+
+    int cellSize() {
+        return cellSize;
+    }
+
+    int cell(int coordinate) {
+        // 负坐标向下取整，保证格子连续
+        return coordinate >= 0 ? coordinate / cellSize : (coordinate + 1) / cellSize - 1;
+    }
+
+    static int key(int cx, int cy) {
+        return (cx << 16) | (cy & 0xFFFF);
+    }
+
+}
@@ -0,0 +1,329 @@
+package cn.qiang.zhang.randomlabel;
+
+import java.util.Arrays;
+
+/**
+ * 词云布局
+ * <p>
+ * 按面积从大到小依次沿阿基米德螺线寻找空位，碰撞检测使用按位存储的占用网格：
+ * 每个格子一个bit，一行格子连续存放在long数组中，检查一个矩形只需对覆盖到的若干个long做位与。
+ * 被占用的格子只会增加，所以中心已被占用的螺线点可以永久跳过；以螺线点为中心时，小标签放不下的位置
+ * 大标签也一定放不下，因此每个标签都从不大于它的尺寸上次停下的位置继续向外找。
+ * 这个类只做计算，不依赖视图，可以在任意线程使用。
+ */
+final class WordCloudLayout {
+    /** 螺线参数：每转一圈半径增加一个格子 */
+    private static final double SPIRAL_A = 1 / (2 * Math.PI);
+
+    private final int width;
+    private final int height;
+    private final int cell;
+    private final int cols;
+    private final int rows;
+    /** 每行占用的long数量 */
+    private final int words;
+    private final long[] bits;
+    /** 螺线中心和纵横比 */
+    private final double centerX;
+    private final double centerY;
+    private final double ratio;
+    /** 半径超过这个值后螺线完全在区域之外 */
+    private final double maxRadius;
+    /** 螺线经过的格子，按行优先编号，按需延长 */
+    private int[] spiral = new int[256];
+    private int spiralCount;
+    /** 螺线延长到的角度及其余弦、正弦 */
+    private double theta;
+    private double cos = 1;
+    private double sin;
+    /** 并查集：跳过中心格子已被占用的螺线点 */
+    private int[] next = new int[256];
+    /** 已尝试过的格子尺寸，以及每种尺寸在螺线上停下的位置 */
+    private int[] triedW = new int[16];
+    private int[] triedH = new int[16];
+    private int[] triedIndex = new int[16];
+    private int triedCount;
+    /** 尚未放置的标签中最小的格子宽高 */
+    private int minCw;
+    private int minCh;
+    /** 空闲格子数量 */
+    private int freeCells;
+
+    /**
+     * @param width  布局区域宽度
+     * @param height 布局区域高度
+     * @param cell   占用网格的格子大小，越小越紧凑，越大越快
+     */
+    WordCloudLayout(int width, int height, int cell) {
+        this.width = width;
+        this.height = height;
+        this.cell = Math.max(1, cell);
+        this.cols = (width + this.cell - 1) / this.cell;
+        this.rows = (height + this.cell - 1) / this.cell;
+        this.words = (cols + 63) >>> 6;
+        this.bits = new long[Math.max(1, rows * words)];
+        this.freeCells = cols * rows;
+        this.centerX = cols / 2.0;
+        this.centerY = rows / 2.0;
+        this.ratio = (double) rows / Math.max(1, cols);
+        this.maxRadius = Math.hypot(centerX, centerY / ratio) + 1;
+    }
+
+    /** 标记不可放置的区域，例如占位视图 */
+    void occupy(int left, int top, int right, int bottom) {
+        left = Math.max(0, left);
+        top = Math.max(0, top);
+        right = Math.min(width, right);
+        bottom = Math.min(height, bottom);
+        if (left < right && top < bottom) {
+            mark(left / cell, top / cell, (right - 1) / cell, (bottom - 1) / cell);
+            // 标记区域可能与之前的重叠，重新统计
+            freeCells = countFree();
+        }
+    }
+
+    void reset() {
+        Arrays.fill(bits, 0);
+        triedCount = 0;
+        freeCells = cols * rows;
+        for (int i = 0; i < spiralCount; i++) {
+            next[i] = i;
+        }
+    }
+
+    /**
+     * 放置所有标签
+     * @param widths  标签宽度
+     * @param heights 标签高度
+     * @param count   标签数量
+     * @param outX    输出左上角横坐标
+     * @param outY    输出左上角纵坐标
+     * @return 是否放置成功，放不下的标签为false
+     */
+    boolean[] layout(int[] widths, int[] heights, int count, int[] outX, int[] outY) {
+        // 面积放在高位、下标放在低位，排序后从大到小遍历即可，不需要装箱
+        long[] order = new long[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = ((long) widths[i] * heights[i]) << 32 | i;
+        }
+        Arrays.sort(order);
+        // 从后往前放置，minW[i]、minH[i]是尚未放置的标签（0到i）中最小的格子宽高
+        int[] minW = new int[count];
+        int[] minH = new int[count];
+        for (int i = 0; i < count; i++) {
+            int index = (int) order[i];
+            int cw = (widths[index] + cell - 1) / cell;
+            int ch = (heights[index] + cell - 1) / cell;
+            minW[i] = i == 0 ? cw : Math.min(minW[i - 1], cw);
+            minH[i] = i == 0 ? ch : Math.min(minH[i - 1], ch);
+        }
+        boolean[] placed = new boolean[count];
+        for (int i = count - 1; i >= 0; i--) {
+            int index = (int) order[i];
+            minCw = minW[i];
+            minCh = minH[i];
+            placed[index] = place(widths[index], heights[index], outX, outY, index);
+        }
+        return placed;
+    }
+
+    /** 沿螺线寻找第一个空位 */
+    private boolean place(int w, int h, int[] outX, int[] outY, int index) {
+        if (w > width || h > height) {
+            return false;
+        }
+        // 网格坐标中的尺寸
+        int cw = (w + cell - 1) / cell;
+        int ch = (h + cell - 1) / cell;
+        if (cw * ch > freeCells) {
+            return false;
+        }
+        int i = startIndex(cw, ch);
+        // 大标签沿螺线跳跃前进，减少碰撞检测的次数，代价是略微稀疏
+        int stride = Math.max(1, Math.min(cw, ch) / 3);
+        while (true) {
+            i = nextAlive(i);
+            if (i < 0) {
+                remember(cw, ch, spiralCount);
+                return false;
+            }
+            // 螺线上的点作为标签中心
+            int x = spiral[i] % cols - cw / 2;
+            int y = spiral[i] / cols - ch / 2;
+            if (fits(i, cw, ch)) {
+                mark(x, y, x + cw - 1, y + ch - 1);
+                freeCells -= cw * ch;
+                remember(cw, ch, i);
+                outX[index] = x * cell;
+                outY[index] = y * cell;
+                return true;
+            }
+            if ((cw == minCw && ch == minCh) || !fits(i, minCw, minCh)) {
+                // 剩下最小的标签都放不下，这个点以后永远不用再试
+                next[i] = i + 1;
+            }
+            i += stride;
+        }
+    }
+
+    /** 以第i个螺线点为中心能否放下给定格子尺寸的标签 */
+    private boolean fits(int i, int cw, int ch) {
+        int x = spiral[i] % cols - cw / 2;
+        int y = spiral[i] / cols - ch / 2;
+        return x >= 0 && y >= 0 && x + cw <= cols && y + ch <= rows
+                && isFree(x, y, x + cw - 1, y + ch - 1);
+    }
+
+    /** 不大于给定尺寸的标签已经尝试到的最远位置，之前的位置都放不下 */
+    private int startIndex(int cw, int ch) {
+        int start = 0;
+        for (int i = 0; i < triedCount; i++) {
+            if (triedW[i] <= cw && triedH[i] <= ch && triedIndex[i] > start) {
+                start = triedIndex[i];
+            }
+        }
+        return start;
+    }
+
+    private void remember(int cw, int ch, int index) {
+        for (int i = 0; i < triedCount; i++) {
+            if (triedW[i] == cw && triedH[i] == ch) {
+                triedIndex[i] = index;
+                return;
+            }
+        }
+        if (triedCount == triedW.length) {
+            triedW = Arrays.copyOf(triedW, triedCount * 2);
+            triedH = Arrays.copyOf(triedH, triedCount * 2);
+            triedIndex = Arrays.copyOf(triedIndex, triedCount * 2);
+        }
+        triedW[triedCount] = cw;
+        triedH[triedCount] = ch;
+        triedIndex[triedCount] = index;
+        triedCount++;
+    }
+
+    /**
+     * 按需延长螺线，直到第index个点存在：从区域中心出发，按宽高比拉伸为椭圆，
+     * 每转一圈半径增加一个格子，沿螺线每次大约前进一个格子
+     * @return 螺线走出区域之前是否存在第index个点
+     */
+    private boolean ensureSpiral(int index) {
+        while (spiralCount <= index) {
+            double r = SPIRAL_A * theta;
+            if (r > maxRadius) {
+                return false;
+            }
+            int x = (int) (centerX + r * cos);
+            int y = (int) (centerY + r * ratio * sin);
+            // 每步转过的角度很小，用泰勒展开旋转单位向量代替逐点计算三角函数
+            double step = 1 / Math.max(1, r);
+            double stepCos = 1 - step * step / 2;
+            double stepSin = step - step * step * step / 6;
+            double c = cos * stepCos - sin * stepSin;
+            double s = sin * stepCos + cos * stepSin;
+            // 归一化，避免误差累积改变半径
+            double norm = Math.sqrt(c * c + s * s);
+            cos = c / norm;
+            sin = s / norm;
+            theta += step;
+            if (x < 0 || y < 0 || x >= cols || y >= rows) {
+                continue;
+            }
+            int point = y * cols + x;
+            if (spiralCount > 0 && spiral[spiralCount - 1] == point) {
+                continue;
+            }
+            if (spiralCount == spiral.length) {
+                spiral = Arrays.copyOf(spiral, spiralCount * 2);
+                next = Arrays.copyOf(next, spiralCount * 2);
+            }
+            spiral[spiralCount] = point;
+            next[spiralCount] = spiralCount;
+            spiralCount++;
+        }
+        return true;
+    }
+
+    /**
+     * 从第i个螺线点开始，找到第一个中心格子仍然空闲的点
+     * <p>
+     * 中心格子被占用的点对任何尺寸的标签都不可能放下，而占用只会增加，
+     * 所以用并查集把这些点永久跳过，之后的标签不会再重复检查已经填满的内圈。
+     * @return 螺线点下标，螺线已经走出区域时返回-1
+     */
+    private int nextAlive(int i) {
+        int root = i;
+        while (true) {
+            if (root >= spiralCount && !ensureSpiral(root)) {
+                root = -1;
+                break;
+            }
+            if (next[root] != root) {
+                root = next[root];
+            } else if (isOccupied(spiral[root])) {
+                next[root] = root + 1;
+                root++;
+            } else {
+                break;
+            }
+        }
+        // 路径压缩
+        int target = root < 0 ? spiralCount : root;
+        while (i < target) {
+            int n = next[i];
+            next[i] = target;
+            i = n;
+        }
+        return root;
+    }
+
+    private boolean isOccupied(int point) {
+        int row = point / cols;
+        int col = point - row * cols;
+        return (bits[row * words + (col >>> 6)] & (1L << (col & 63))) != 0;
+    }
+
+    /** 格子范围是否全部空闲，参数均为包含边界的格子坐标 */
+    private boolean isFree(int c0, int r0, int c1, int r1) {
+        int w0 = c0 >>> 6;
+        int w1 = c1 >>> 6;
+        for (int row = r0; row <= r1; row++) {
+            int base = row * words;
+            for (int word = w0; word <= w1; word++) {
+                if ((bits[base + word] & mask(word, c0, c1)) != 0) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private void mark(int c0, int r0, int c1, int r1) {
+        int w0 = c0 >>> 6;
+        int w1 = c1 >>> 6;
+        for (int row = r0; row <= r1; row++) {
+            int base = row * words;
+            for (int word = w0; word <= w1; word++) {
+                bits[base + word] |= mask(word, c0, c1);
+            }
+        }
+    }
+
+    private int countFree() {
+        int occupied = 0;
+        for (long word : bits) {
+            occupied += Long.bitCount(word);
+        }
+        return cols * rows - occupied;
+    }
+
+    /** 第word个long中落在[c0, c1]范围内的位 */
+    private static long mask(int word, int c0, int c1) {
+        int start = Math.max(c0 - (word << 6), 0);
+        int end = Math.min(c1 - (word << 6), 63);
+        long high = end == 63 ? -1L : (1L << (end + 1)) - 1;
+        return high & (-1L << start);
+    }
+
+}
@@ -0,0 +1,114 @@
+package cn.qiang.zhang.randomlabel;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+/**
+ * {@link PngEncoder}的输出用ImageIO解码，像素应与输入一致
+ */
+public class PngEncoderTest {
+
+    @Test
+    public void roundTrip() throws Exception {
+        int width = 7;
+        int height = 5;
+        int[] pixels = new int[width * height];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = 0xFF000000 | (i * 37 << 16) | (i * 11 << 8) | i * 5;
+        }
+        assertPixels(width, height, pixels, encode(width, height, pixels, height));
+    }
+
+    /** 随机像素压缩后超过一个IDAT块，并且按多批写入 */
+    @Test
+    public void multipleChunks() throws Exception {
+        int width = 300;
+        int height = 200;
+        int[] pixels = randomPixels(width * height);
+        byte[] png = encode(width, height, pixels, 64);
+        assertPixels(width, height, pixels, png);
+    }
+
+    /** 写出失败后仍然可以释放压缩器，重复释放不会出错 */
+    @Test
+    public void endAfterFailure() throws Exception {
+        OutputStream out = new OutputStream() {
+            private int written;
+
+            @Override
+            public void write(int b) throws IOException {
+                // 文件头之后的第一个IDAT块写出时失败
+                if (++written > 64) {
+                    throw new IOException("full");
+                }
+            }
+        };
+        int width = 300;
+        int height = 200;
+        int[] pixels = randomPixels(width * height);
+        PngEncoder encoder = new PngEncoder(out, width, height);
+        try {
+            encoder.writeRows(pixels, 0, height);
+            encoder.finish();
+            fail("expected IOException");
+        } catch (IOException expected) {
+            // 预期的写出失败
+        } finally {
+            encoder.end();
+        }
+        encoder.end();
+    }
+
+    /** 每次写入rowsPerBatch行 */
+    private static byte[] encode(int width, int height, int[] pixels, int rowsPerBatch)
+            throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PngEncoder encoder = new PngEncoder(out, width, height);
+        try {
+            for (int top = 0; top < height; top += rowsPerBatch) {
+                encoder.writeRows(pixels, top * width, Math.min(rowsPerBatch, height - top));
+            }
+            encoder.finish();
+        } finally {
+            encoder.end();
+        }
+        return out.toByteArray();
+    }
+
+    private static int[] randomPixels(int count) {
+        int[] pixels = new int[count];
+        Random random = new Random(1);
+        for (int i = 0; i < count; i++) {
+            pixels[i] = random.nextInt();
+        }
+        return pixels;
+    }
+
+    private static void assertPixels(int width, int height, int[] pixels, byte[] png)
+            throws IOException {
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(png));
+        assertNotNull(image);
+        assertEquals(width, image.getWidth());
+        assertEquals(height, image.getHeight());
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                // 输出不透明，忽略输入的透明度
+                assertEquals("pixel " + x + "," + y, pixels[y * width + x] | 0xFF000000,
+                             image.getRGB(x, y));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,91 @@
+package cn.qiang.zhang.library;
+
+import android.content.ComponentCallbacks;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.util.DisplayMetrics;
+
+/**
+ * 尺寸换算
+ * <p>
+ * 全局共享的dip、sp到像素的换算，密度和常用dip值的像素结果预先算好，换算时不再访问Resources。
+ * 只有配置变化（例如切换分辨率、字体缩放）时才重新计算。
+ */
+public final class Dimensions {
+    /** 预先换算的dip范围，库中用到的常量都在这个范围内 */
+    private static final int TABLE_SIZE = 129;
+
+    private static Dimensions instance;
+
+    private final Context context;
+    private float density;
+    private float scaledDensity;
+    /** dip → 像素 */
+    private final int[] dipTable = new int[TABLE_SIZE];
+
+    /**
+     * 获取全局唯一的换算器，第一次获取时注册配置变化监听
+     * @param context 任意上下文
+     */
+    public static synchronized Dimensions get(Context context) {
+        if (instance == null) {
+            instance = new Dimensions(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private Dimensions(Context context) {
+        this.context = context;
+        update();
+        context.registerComponentCallbacks(new ComponentCallbacks() {
+            @Override
+            public void onConfigurationChanged(Configuration newConfig) {
+                update();
+            }
+
+            @Override
+            public void onLowMemory() {
+            }
+        });
+    }
+
+    /** 读取当前密度，密度没有变化时保留已换算的结果 */
+    private void update() {
+        DisplayMetrics metrics = context.getResources().getDisplayMetrics();
+        scaledDensity = metrics.scaledDensity;
+        if (density == metrics.density) {
+            return;
+        }
+        density = metrics.density;
+        for (int dip = 0; dip < TABLE_SIZE; dip++) {
+            // 与TypedValue.applyDimension后取整的结果一致
+            dipTable[dip] = (int) (dip * density);
+        }
+    }
+
+    /**
+     * dip转换为像素
+     * @param dip dip值
+     * @return 像素值，向零取整
+     */
+    public int dip(int dip) {
+        if (dip >= 0 && dip < TABLE_SIZE) {
+            return dipTable[dip];
+        }
+        return (int) (dip * density);
+    }
+
+    /**
+     * sp转换为像素
+     * @param sp sp值
+     * @return 像素值
+     */
+    public float sp(float sp) {
+        return sp * scaledDensity;
+    }
+
+    public float getDensity() {
+        return density;
+    }
+
+}
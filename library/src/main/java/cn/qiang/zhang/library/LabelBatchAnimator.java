@@ -0,0 +1,193 @@
+package cn.qiang.zhang.library;
+
+import android.animation.Animator;
+import android.animation.AnimatorListenerAdapter;
+import android.animation.ValueAnimator;
+import android.view.View;
+import android.view.animation.AccelerateInterpolator;
+import android.view.animation.DecelerateInterpolator;
+import android.view.animation.Interpolator;
+import android.view.animation.LinearInterpolator;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * 批量标签动画
+ * <p>
+ * 用一个{@link ValueAnimator}驱动一批标签的透明度和缩放，每个标签按下标错开起始时间，
+ * 拥有各自独立的时间线。与{@link LabelView#show(boolean)}不同，这里不会给每个标签启动一个
+ * 共享状态的{@link android.view.animation.Animation}；硬件层只在标签自己的动画进行中开启。
+ */
+public final class LabelBatchAnimator {
+    /** 单个标签的动画时长 */
+    private static final long DEFAULT_DURATION = 300;
+    /** 相邻标签的错开时间 */
+    private static final long DEFAULT_STAGGER = 16;
+    /** 第一个和最后一个标签起始时间的最大间隔 */
+    private static final long DEFAULT_MAX_SPREAD = 600;
+    /** 入场时的起始缩放 */
+    private static final float DEFAULT_SCALE_FROM = 0.6f;
+
+    private long duration = DEFAULT_DURATION;
+    private long stagger = DEFAULT_STAGGER;
+    private long maxSpread = DEFAULT_MAX_SPREAD;
+    /** 当前批次实际的错开时间 */
+    private float batchStagger;
+    private float scaleFrom = DEFAULT_SCALE_FROM;
+    private Interpolator enterInterpolator = new DecelerateInterpolator();
+    private Interpolator exitInterpolator = new AccelerateInterpolator();
+
+    private final List<LabelView> labels = new ArrayList<>();
+    /** 每个标签的时间线状态：0 未开始，1 进行中，2 已结束 */
+    private int[] states = new int[0];
+    private ValueAnimator animator;
+    private boolean entering;
+    private Runnable endAction;
+
+    public LabelBatchAnimator duration(long duration) {
+        this.duration = Math.max(1, duration);
+        return this;
+    }
+
+    public LabelBatchAnimator stagger(long stagger) {
+        this.stagger = Math.max(0, stagger);
+        return this;
+    }
+
+    /**
+     * 设置错开的总时长上限，标签很多时相邻标签的错开时间随之缩短，整批动画的时长不随数量增长
+     * @param maxSpread 第一个和最后一个标签起始时间的最大间隔，毫秒
+     */
+    public LabelBatchAnimator maxSpread(long maxSpread) {
+        this.maxSpread = Math.max(0, maxSpread);
+        return this;
+    }
+
+    public LabelBatchAnimator scaleFrom(float scaleFrom) {
+        this.scaleFrom = scaleFrom;
+        return this;
+    }
+
+    public LabelBatchAnimator interpolator(Interpolator enter, Interpolator exit) {
+        this.enterInterpolator = enter;
+        this.exitInterpolator = exit;
+        return this;
+    }
+
+    /**
+     * 入场：依次淡入并放大
+     * @param views 标签集合
+     */
+    public void animateIn(Collection<LabelView> views) {
+        start(views, true, null);
+    }
+
+    /**
+     * 出场：依次淡出并缩小，结束后隐藏
+     * @param views     标签集合
+     * @param endAction 全部结束后执行，可以为null
+     */
+    public void animateOut(Collection<LabelView> views, Runnable endAction) {
+        start(views, false, endAction);
+    }
+
+    /** 立即结束当前批次，所有标签跳到最终状态 */
+    public void end() {
+        if (animator != null) {
+            animator.end();
+        }
+    }
+
+    public boolean isRunning() {
+        return animator != null && animator.isRunning();
+    }
+
+    private void start(Collection<LabelView> views, boolean entering, Runnable endAction) {
+        // 同一时间只有一个批次，旧批次直接到达终点
+        end();
+        labels.clear();
+        labels.addAll(views);
+        if (states.length < labels.size()) {
+            states = new int[labels.size()];
+        }
+        this.entering = entering;
+        this.endAction = endAction;
+        for (int i = 0; i < labels.size(); i++) {
+            states[i] = 0;
+            LabelView label = labels.get(i);
+            if (entering) {
+                // 先以透明状态显示，保持布局不变
+                label.setAlpha(0);
+                label.show();
+            }
+        }
+        int gaps = Math.max(0, labels.size() - 1);
+        batchStagger = gaps > 0 ? Math.min(stagger, maxSpread / (float) gaps) : 0;
+        long total = duration + (long) Math.ceil(batchStagger * gaps);
+        animator = ValueAnimator.ofFloat(0, 1);
+        animator.setDuration(total);
+        animator.setInterpolator(new LinearInterpolator());
+        animator.addUpdateListener(new ValueAnimator.AnimatorUpdateListener() {
+            @Override
+            public void onAnimationUpdate(ValueAnimator animation) {
+                onFrame(animation.getAnimatedFraction() * animation.getDuration());
+            }
+        });
+        animator.addListener(new AnimatorListenerAdapter() {
+            @Override
+            public void onAnimationEnd(Animator animation) {
+                onFrame(Long.MAX_VALUE);
+                labels.clear();
+                animator = null;
+                Runnable action = LabelBatchAnimator.this.endAction;
+                LabelBatchAnimator.this.endAction = null;
+                if (action != null) {
+                    action.run();
+                }
+            }
+        });
+        animator.start();
+    }
+
+    /**
+     * 按经过的时间更新每个标签
+     * @param elapsed 批次开始后经过的毫秒数
+     */
+    private void onFrame(float elapsed) {
+        Interpolator interpolator = entering ? enterInterpolator : exitInterpolator;
+        for (int i = 0; i < labels.size(); i++) {
+            if (states[i] == 2) {
+                continue;
+            }
+            float t = (elapsed - batchStagger * i) / duration;
+            if (t <= 0) {
+                continue;
+            }
+            LabelView label = labels.get(i);
+            if (states[i] == 0) {
+                // 动画期间使用硬件层，透明度和缩放只需合成
+                states[i] = 1;
+                label.setLayerType(View.LAYER_TYPE_HARDWARE, null);
+            }
+            float value = interpolator.getInterpolation(Math.min(1, t));
+            float progress = entering ? value : 1 - value;
+            label.setAlpha(progress);
+            float scale = scaleFrom + (1 - scaleFrom) * progress;
+            label.setScaleX(scale);
+            label.setScaleY(scale);
+            if (t >= 1) {
+                states[i] = 2;
+                label.setLayerType(View.LAYER_TYPE_NONE, null);
+                if (!entering) {
+                    label.hide();
+                    label.setAlpha(1);
+                    label.setScaleX(1);
+                    label.setScaleY(1);
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,57 @@
+package cn.qiang.zhang.library;
+
+/**
+ * 标签库的运行计数
+ * <p>
+ * 只做累加，用于演示界面和不同模式之间的性能对比。计数在主线程更新，其他线程读取时可能略有滞后。
+ */
+public final class LabelMetrics {
+    /** 创建的标签视图数量 */
+    static int viewsCreated;
+    /** 复用视图时重新绑定的次数 */
+    static int rebinds;
+    /** 自适应字体的缓存命中和未命中次数 */
+    static int fitHits;
+    static int fitMisses;
+    /** 烘焙阴影位图的缓存命中和未命中次数 */
+    static int shadowHits;
+    static int shadowMisses;
+
+    private LabelMetrics() {
+    }
+
+    public static int getViewsCreated() {
+        return viewsCreated;
+    }
+
+    public static int getRebinds() {
+        return rebinds;
+    }
+
+    public static int getFitHits() {
+        return fitHits;
+    }
+
+    public static int getFitMisses() {
+        return fitMisses;
+    }
+
+    public static int getShadowHits() {
+        return shadowHits;
+    }
+
+    public static int getShadowMisses() {
+        return shadowMisses;
+    }
+
+    /** 清零所有计数 */
+    public static void reset() {
+        viewsCreated = 0;
+        rebinds = 0;
+        fitHits = 0;
+        fitMisses = 0;
+        shadowHits = 0;
+        shadowMisses = 0;
+    }
+
+}
@@ -0,0 +1,105 @@
+package cn.qiang.zhang.library;
+
+import android.graphics.Color;
+import android.support.annotation.ColorInt;
+
+/**
+ * 标签调色板
+ * <p>
+ * 固定的一组背景颜色，构造时按相对亮度为每种颜色算好对比度最高的文字颜色，取色只是一次数组访问。
+ * 颜色数量有限，按颜色缓存的背景位图（例如{@link LabelView.SHADOW#BAKED}）可以被大量标签共享。
+ * 随机取色在主线程使用。
+ */
+public final class LabelPalette {
+    /** 浅色背景上的文字颜色 */
+    private static final int DEFAULT_DARK_TEXT = 0xFF212121;
+    /** 深色背景上的文字颜色 */
+    private static final int DEFAULT_LIGHT_TEXT = Color.WHITE;
+
+    /** 默认调色板：Material 500色阶 */
+    public static final LabelPalette DEFAULT = new LabelPalette(new int[]{
+            0xFFF44336, 0xFFE91E63, 0xFF9C27B0, 0xFF673AB7,
+            0xFF3F51B5, 0xFF2196F3, 0xFF03A9F4, 0xFF00BCD4,
+            0xFF009688, 0xFF4CAF50, 0xFF8BC34A, 0xFFCDDC39,
+            0xFFFFEB3B, 0xFFFFC107, 0xFFFF9800, 0xFFFF5722,
+    });
+
+    private final int[] colors;
+    private final int[] textColors;
+    /** 随机取色的状态 */
+    private int seed = (int) System.nanoTime() | 1;
+
+    /**
+     * @param colors 背景颜色，至少一种
+     */
+    public LabelPalette(@ColorInt int[] colors) {
+        this(colors, DEFAULT_LIGHT_TEXT, DEFAULT_DARK_TEXT);
+    }
+
+    /**
+     * @param colors    背景颜色，至少一种
+     * @param lightText 深色背景上的文字颜色
+     * @param darkText  浅色背景上的文字颜色
+     */
+    public LabelPalette(@ColorInt int[] colors, @ColorInt int lightText, @ColorInt int darkText) {
+        if (colors.length == 0) {
+            throw new IllegalArgumentException("colors is empty");
+        }
+        this.colors = colors.clone();
+        this.textColors = new int[colors.length];
+        for (int i = 0; i < colors.length; i++) {
+            textColors[i] = contrast(colors[i], lightText) >= contrast(colors[i], darkText)
+                    ? lightText : darkText;
+        }
+    }
+
+    public int size() {
+        return colors.length;
+    }
+
+    @ColorInt
+    public int colorAt(int index) {
+        return colors[index];
+    }
+
+    /** 与第index种背景颜色对比度最高的文字颜色 */
+    @ColorInt
+    public int textColorAt(int index) {
+        return textColors[index];
+    }
+
+    /**
+     * 随机选取一种颜色，不分配对象
+     * @return 颜色下标
+     */
+    public int randomIndex() {
+        // xorshift
+        seed ^= seed << 13;
+        seed ^= seed >>> 17;
+        seed ^= seed << 5;
+        return (seed >>> 1) % colors.length;
+    }
+
+    /**
+     * 按WCAG定义计算两种颜色的对比度
+     * @return 1到21之间，越大越清晰
+     */
+    public static double contrast(@ColorInt int background, @ColorInt int foreground) {
+        double l1 = luminance(background);
+        double l2 = luminance(foreground);
+        return (Math.max(l1, l2) + 0.05) / (Math.min(l1, l2) + 0.05);
+    }
+
+    /** 相对亮度，忽略透明度 */
+    private static double luminance(int color) {
+        return 0.2126 * linear(Color.red(color))
+                + 0.7152 * linear(Color.green(color))
+                + 0.0722 * linear(Color.blue(color));
+    }
+
+    private static double linear(int channel) {
+        double c = channel / 255.0;
+        return c <= 0.03928 ? c / 12.92 : Math.pow((c + 0.055) / 1.055, 2.4);
+    }
+
+}
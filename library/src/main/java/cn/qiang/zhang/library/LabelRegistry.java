@@ -0,0 +1,330 @@
+package cn.qiang.zhang.library;
+
+import android.app.Activity;
+import android.app.Application;
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.os.Bundle;
+import android.view.View;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * 角标注册表
+ * <p>
+ * 角标贴到目标视图上时自动注册，以目标视图为键、弱引用保存，注册表本身不会延长任何视图树的生命周期。
+ * 目标视图暂时离开窗口（例如列表项被回收、ViewPager切换页面）时角标保持不变；
+ * 只有所在的Activity销毁时才把角标从目标上移除。
+ * <p>
+ * 对象池按Context划分，Activity销毁时整体丢弃，避免池中的角标持有已销毁的Activity。
+ */
+public final class LabelRegistry {
+    /** 每个Context默认最多缓存的角标数量 */
+    private static final int DEFAULT_MAX_POOL_SIZE = 32;
+    /** 估算值：一个TextView实例及其内部对象的大致字节数 */
+    private static final int ESTIMATED_VIEW_BYTES = 1024;
+    /** 估算值：背景、布局参数等附属对象的大致字节数 */
+    private static final int ESTIMATED_EXTRA_BYTES = 256;
+
+    private static LabelRegistry instance;
+
+    /** 目标视图 → 角标；两级都是弱引用，移除单个角标不需要遍历 */
+    private final Map<View, Set<LabelView>> labelMap = new WeakHashMap<>();
+    private int maxPoolSize = DEFAULT_MAX_POOL_SIZE;
+    /** Context → 已移除的角标 */
+    private final Map<Context, Deque<LabelView>> poolMap = new HashMap<>();
+    /**
+     * 已销毁的Activity，只持有弱引用。onDestroy回调之后窗口才真正移除视图树，
+     * 这时才回收的角标不能再放入对象池，否则会一直持有已销毁的Activity
+     */
+    private final Set<Activity> destroyedSet =
+            Collections.newSetFromMap(new WeakHashMap<Activity, Boolean>());
+
+    /**
+     * 获取注册表，第一次获取时注册Activity生命周期监听
+     * @param context 任意上下文
+     * @return 全局唯一的注册表
+     */
+    public static synchronized LabelRegistry get(Context context) {
+        if (instance == null) {
+            instance = new LabelRegistry((Application) context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private LabelRegistry(Application application) {
+        application.registerActivityLifecycleCallbacks(new LifecycleCallbacks());
+    }
+
+    /**
+     * 获取角标：优先从对象池中取出样式一致的角标，否则新建
+     * @param builder 构造器
+     * @return 已贴到目标视图上的角标
+     */
+    public LabelView obtain(LabelView.Builder builder) {
+        LabelView label = poll(builder);
+        if (label == null) {
+            label = builder.build();
+        } else {
+            label.attachTo(builder.targetView);
+            label.rebind(builder);
+        }
+        return label;
+    }
+
+    /** 角标贴到目标视图上时由角标自己调用 */
+    void register(LabelView label) {
+        View target = label.getTargetView();
+        if (target == null) {
+            return;
+        }
+        Set<LabelView> labels = labelMap.get(target);
+        if (labels == null) {
+            labels = Collections.newSetFromMap(new WeakHashMap<LabelView, Boolean>(2));
+            labelMap.put(target, labels);
+        }
+        labels.add(label);
+    }
+
+    /** 角标从目标视图上移除时由角标自己调用 */
+    void unregister(LabelView label) {
+        View target = label.getTargetView();
+        if (target == null) {
+            return;
+        }
+        Set<LabelView> labels = labelMap.get(target);
+        if (labels != null) {
+            labels.remove(label);
+            if (labels.isEmpty()) {
+                labelMap.remove(target);
+            }
+        }
+    }
+
+    /**
+     * 移除目标视图上的所有角标并放入对象池
+     * @param target 目标视图
+     */
+    public void release(View target) {
+        Set<LabelView> labels = labelMap.remove(target);
+        if (labels == null) {
+            return;
+        }
+        for (LabelView label : new ArrayList<>(labels)) {
+            recycle(label);
+        }
+    }
+
+    /**
+     * 移除单个角标并放入对象池
+     * @param label 角标
+     */
+    public void release(LabelView label) {
+        recycle(label);
+    }
+
+    /**
+     * 获取目标视图上仍然存活的角标
+     * @param target 目标视图
+     * @return 角标集合
+     */
+    public List<LabelView> getLabels(View target) {
+        List<LabelView> result = new ArrayList<>();
+        Set<LabelView> labels = labelMap.get(target);
+        if (labels != null) {
+            for (LabelView label : labels) {
+                if (isLive(label)) {
+                    result.add(label);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 设置每个Context最多缓存的角标数量，多个标签容器共享对象池时可以调大
+     * @param maxPoolSize 数量
+     */
+    public void setMaxPoolSize(int maxPoolSize) {
+        this.maxPoolSize = Math.max(0, maxPoolSize);
+    }
+
+    public int getMaxPoolSize() {
+        return maxPoolSize;
+    }
+
+    /** 仍然贴在目标视图上的角标数量 */
+    public int getLiveCount() {
+        int count = 0;
+        for (Set<LabelView> labels : labelMap.values()) {
+            for (LabelView label : labels) {
+                if (isLive(label)) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /** 对象池中的角标数量 */
+    public int getPooledCount() {
+        int count = 0;
+        for (Deque<LabelView> pool : poolMap.values()) {
+            count += pool.size();
+        }
+        return count;
+    }
+
+    /**
+     * 估算存活角标和对象池角标占用的内存
+     * @return 字节数，仅为估算值
+     */
+    public long getRetainedBytes() {
+        long bytes = 0;
+        for (Set<LabelView> labels : labelMap.values()) {
+            for (LabelView label : labels) {
+                if (isLive(label)) {
+                    bytes += estimateBytes(label);
+                }
+            }
+        }
+        for (Deque<LabelView> pool : poolMap.values()) {
+            for (LabelView label : pool) {
+                bytes += estimateBytes(label);
+            }
+        }
+        return bytes;
+    }
+
+    /** 调用方直接从父容器移除的角标不再计入，等待回收后从注册表中消失 */
+    private static boolean isLive(LabelView label) {
+        return label.getParent() != null;
+    }
+
+    private static long estimateBytes(LabelView label) {
+        if (label == null) {
+            return 0;
+        }
+        // 文字按UTF-16计算
+        return ESTIMATED_VIEW_BYTES + ESTIMATED_EXTRA_BYTES + label.length() * 2;
+    }
+
+    private void recycle(LabelView label) {
+        label.detach();
+        Context context = label.getContext();
+        if (isDead(context)) {
+            return;
+        }
+        Deque<LabelView> pool = poolMap.get(context);
+        if (pool == null) {
+            pool = new ArrayDeque<>();
+            poolMap.put(context, pool);
+        }
+        if (pool.size() < maxPoolSize) {
+            pool.push(label);
+        }
+    }
+
+    private LabelView poll(LabelView.Builder builder) {
+        Deque<LabelView> pool = poolMap.get(builder.context);
+        if (pool == null || builder.targetView == null) {
+            return null;
+        }
+        if (isDead(builder.context)) {
+            poolMap.remove(builder.context);
+            return null;
+        }
+        for (Iterator<LabelView> it = pool.iterator(); it.hasNext(); ) {
+            LabelView label = it.next();
+            if (label.matches(builder)) {
+                it.remove();
+                return label;
+            }
+        }
+        return null;
+    }
+
+    /** Context所属的Activity是否正在结束或已经销毁 */
+    private boolean isDead(Context context) {
+        Context base = unwrap(context);
+        return base instanceof Activity
+                && (((Activity) base).isFinishing() || destroyedSet.contains(base));
+    }
+
+    /** Activity销毁时把其中的角标从目标上移除，并丢弃它的对象池 */
+    private void onDestroyed(Activity activity) {
+        destroyedSet.add(activity);
+        List<LabelView> destroyed = new ArrayList<>();
+        for (Iterator<Map.Entry<View, Set<LabelView>>> it = labelMap.entrySet().iterator();
+             it.hasNext(); ) {
+            Map.Entry<View, Set<LabelView>> entry = it.next();
+            View target = entry.getKey();
+            if (target == null || unwrap(target.getContext()) != activity) {
+                continue;
+            }
+            it.remove();
+            destroyed.addAll(entry.getValue());
+        }
+        // 遍历结束后再移除，移除时角标会从注册表中注销
+        for (LabelView label : destroyed) {
+            label.detach();
+        }
+        for (Iterator<Context> it = poolMap.keySet().iterator(); it.hasNext(); ) {
+            if (unwrap(it.next()) == activity) {
+                it.remove();
+            }
+        }
+    }
+
+    private static Context unwrap(Context context) {
+        while (!(context instanceof Activity) && context instanceof ContextWrapper) {
+            Context base = ((ContextWrapper) context).getBaseContext();
+            if (base == null || base == context) {
+                break;
+            }
+            context = base;
+        }
+        return context;
+    }
+
+    private final class LifecycleCallbacks implements Application.ActivityLifecycleCallbacks {
+        @Override
+        public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+        }
+
+        @Override
+        public void onActivityStarted(Activity activity) {
+        }
+
+        @Override
+        public void onActivityResumed(Activity activity) {
+        }
+
+        @Override
+        public void onActivityPaused(Activity activity) {
+        }
+
+        @Override
+        public void onActivityStopped(Activity activity) {
+        }
+
+        @Override
+        public void onActivitySaveInstanceState(Activity activity, Bundle outState) {
+        }
+
+        @Override
+        public void onActivityDestroyed(Activity activity) {
+            onDestroyed(activity);
+        }
+    }
+
+}
@@ -2,9 +2,9 @@ package cn.qiang.zhang.library;
 
 import android.annotation.SuppressLint;
 import android.content.Context;
-import android.content.res.Resources;
 import android.graphics.Color;
 import android.graphics.Typeface;
+import android.graphics.drawable.Drawable;
 import android.graphics.drawable.ShapeDrawable;
 import android.graphics.drawable.shapes.RoundRectShape;
 import android.os.Build;
@@ -25,6 +25,8 @@ import android.widget.FrameLayout;
 import android.widget.TabWidget;
 import android.widget.TextView;
 
+import java.lang.ref.WeakReference;
+
 /**
  * 自定义标签
  * <p>
@@ -48,6 +50,16 @@ public class LabelView extends TextView {
         CENTER,
     }
 
+    /** 阴影枚举 */
+    public enum SHADOW {
+        /** 使用elevation实时阴影，仅Lollipop及以上有效 */
+        ELEVATION,
+        /** 使用按颜色缓存的烘焙阴影背景，适合大量标签 */
+        BAKED,
+        /** 不绘制阴影 */
+        NONE,
+    }
+
     /*默认参数*/
     /** 边距是指相对于父布局，当前标签的间隔距离，通常用于设置标签的位置 */
     private static final int DEFAULT_MARGIN_DIP = 5;
@@ -63,26 +75,33 @@ public class LabelView extends TextView {
     private static final int DEFAULT_TEXT_COLOR = Color.WHITE;
     /** 文字大小 */
     private static final float DEFAULT_TEXT_SIZE = 12;
+    /** 阴影方式 */
+    private static final SHADOW DEFAULT_SHADOW = SHADOW.ELEVATION;
+    /** 阴影高度或烘焙阴影的半径 */
+    private static final int DEFAULT_SHADOW_DIP = 1;
+    /** 自适应字体的最小字体大小：sp单位 */
+    private static final int MIN_FIT_TEXT_SIZE = 6;
 
     /*实例参数*/
     /** 动画类：入场 */
     final Animation fadeIn;
     /** 动画类：出场 */
     final Animation fadeOut;
-    /** 上下文：事实上也可以通过getContext()获取 */
-    final Context context;
-    /** 目标视图，即悬浮其上的视图 */
-    final View targetView;
+    /** 入场和出场动画是否由调用方指定，否则为构造器生成的默认动画 */
+    final boolean customFadeIn;
+    final boolean customFadeOut;
+    /** 目标视图，即悬浮其上的视图；使用弱引用，避免角标延长目标视图所在视图树的生命周期 */
+    WeakReference<View> targetView;
     /** 角标位置 */
     final POSITION badgePosition;
     /** 角标水平边距 */
-    final int badgeMarginH;
+    int badgeMarginH;
     /** 角标垂直边距 */
-    final int badgeMarginV;
+    int badgeMarginV;
     /** 角标文字颜色 */
-    final int badgeColor;
+    int badgeColor;
     /** 角标文字大小 */
-    final float badgeSize;
+    float badgeSize;
     /** 目标视图为Tab子View时的下标 */
     final int targetTabIndex;
     /** 是否使用粗体字 */
@@ -90,15 +109,23 @@ public class LabelView extends TextView {
     /** 是否在设置单位时直接使用dip转换方法 */
     final boolean isUseDip;
     /** 文字颜色 */
-    final int textColor;
+    int textColor;
     /** 文字内容 */
-    final String message;
+    String message;
+    /** 自适应字体的最大宽度像素值，0 表示不自适应 */
+    int fitWidth;
+    /** 自适应字体的最大高度像素值 */
+    int fitHeight;
 
     /*动态参数*/
     /** 是否显示 */
     private boolean isShown;
     /** 角标背景 */
     private ShapeDrawable badgeBg;
+    /** 阴影方式 */
+    private SHADOW shadow;
+    /** 共享的尺寸换算 */
+    private final Dimensions dimensions;
 
     public LabelView(Context context) {
         this(new Builder(context));
@@ -127,13 +154,16 @@ public class LabelView extends TextView {
     public LabelView(Context context, View targetView, @Nullable AttributeSet attrs, int defStyle,
                      Builder builder) {
         super(context, attrs, defStyle);
-        this.context = context;
+        this.dimensions = Dimensions.get(context);
+        LabelMetrics.viewsCreated++;
         if (targetView instanceof TabWidget) {
             targetView = ((TabWidget) targetView).getChildTabViewAt(builder.targetTabIndex);
         }
-        this.targetView = targetView;
+        this.targetView = new WeakReference<>(targetView);
         this.fadeIn = builder.fadeIn;
         this.fadeOut = builder.fadeOut;
+        this.customFadeIn = builder.customFadeIn;
+        this.customFadeOut = builder.customFadeOut;
         this.badgePosition = builder.badgePosition;
         this.badgeColor = builder.badgeColor;
         this.badgeSize = builder.badgeSize;
@@ -141,19 +171,21 @@ public class LabelView extends TextView {
         this.isShown = builder.isShown;
         this.isUseBold = builder.isUseBold;
         this.isUseDip = builder.isUseDip;
+        this.shadow = builder.shadow;
         if (isUseDip) {
             this.badgeMarginH = dipToPixels(builder.badgeMarginH);
             this.badgeMarginV = dipToPixels(builder.badgeMarginV);
+            this.fitWidth = dipToPixels(builder.fitWidth);
+            this.fitHeight = dipToPixels(builder.fitHeight);
         } else {
             this.badgeMarginH = builder.badgeMarginH;
             this.badgeMarginV = builder.badgeMarginV;
+            this.fitWidth = builder.fitWidth;
+            this.fitHeight = builder.fitHeight;
         }
         if (!TextUtils.isEmpty(builder.message)) {
             setText(builder.message);
         }
-        if (builder.textColor != DEFAULT_TEXT_COLOR) {
-            setTextColor(builder.textColor);
-        }
         this.textColor = builder.textColor;
         this.message = builder.message;
 
@@ -164,23 +196,24 @@ public class LabelView extends TextView {
      * 初始化
      */
     private void init() {
-        this.badgeBg = getDefaultBackground();
+        if (shadow != SHADOW.BAKED) {
+            this.badgeBg = getDefaultBackground();
+        }
         // 设置文字气泡的左右填充边距
         int paddingPixels = dipToPixels(DEFAULT_LR_PADDING_DIP);
         setPadding(paddingPixels, 0, paddingPixels, 0);
-        // 设置文字默认颜色
-        setTextColor(DEFAULT_TEXT_COLOR);
+        // 设置文字颜色，构造器未指定时即为默认颜色
+        setTextColor(textColor);
         // 设置文字默认大小
-        setTextSize(TypedValue.COMPLEX_UNIT_SP, DEFAULT_TEXT_SIZE);
+        setTextSize(TypedValue.COMPLEX_UNIT_PX, dimensions.sp(DEFAULT_TEXT_SIZE));
 
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
-            // 阴影
-            setTranslationZ(dipToPixels(1));
-        }
+        // 阴影
+        applyShadow();
         // 判断是否传入目标视图
-        if (this.targetView != null) {
+        View target = getTargetView();
+        if (target != null) {
             // 应用到目标视图
-            applyTo(this.targetView);
+            applyTo(target);
         } else {
             // 直接显示当前视图
             show();
@@ -200,7 +233,7 @@ public class LabelView extends TextView {
         FrameLayout container = (FrameLayout) target.getTag();
         // 如果不存在，创建这个帧布局——用于替换目标视图所在位置，同时容纳目标视图和当前角标视图
         if (container == null) {
-            container = new FrameLayout(context);
+            container = new FrameLayout(getContext());
             // 暂存新建的帧布局，用于页面处理
             target.setTag(container);
         }
@@ -240,6 +273,10 @@ public class LabelView extends TextView {
                 group.invalidate();
             }
         }
+        if (!isInEditMode()) {
+            // 注册到注册表，所在的Activity销毁时自动移除
+            LabelRegistry.get(getContext()).register(this);
+        }
     }
 
     /**
@@ -328,22 +365,13 @@ public class LabelView extends TextView {
         // 检查是否改变字体大小
         if (DEFAULT_TEXT_SIZE != badgeSize) {
             // 应用改变后的字体大小：sp单位
-            setTextSize(TypedValue.COMPLEX_UNIT_SP, badgeSize);
+            setTextSize(TypedValue.COMPLEX_UNIT_PX, dimensions.sp(badgeSize));
         }
+        // 自适应字体大小
+        applyAutoFit();
         // 如果没有设置背景
         if (getBackground() == null) {
-            // 没有自定义背景
-            if (badgeBg == null) {
-                // 使用默认背景
-                badgeBg = getDefaultBackground();
-            }
-            // 根据SDK版本采用方法
-            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
-                //noinspection deprecation
-                setBackgroundDrawable(badgeBg);
-            } else {
-                setBackground(badgeBg);
-            }
+            applyBackground();
         }
         // 应用布局参数
         applyLayoutParams();
@@ -392,6 +420,185 @@ public class LabelView extends TextView {
         }
     }
 
+    /**
+     * 重新绑定标签的内容和位置，用于复用已经创建的标签视图，避免重新构建
+     * @param message    文字内容
+     * @param badgeColor 背景颜色
+     * @param marginH    水平边距像素值
+     * @param marginV    垂直边距像素值
+     */
+    public void rebind(String message, @ColorInt int badgeColor, int marginH, int marginV) {
+        LabelMetrics.rebinds++;
+        boolean colorChanged = this.badgeColor != badgeColor;
+        this.message = message;
+        this.badgeColor = badgeColor;
+        this.badgeMarginH = marginH;
+        this.badgeMarginV = marginV;
+        setText(message);
+        applyAutoFit();
+        if (badgeBg != null && colorChanged) {
+            badgeBg.getPaint().setColor(badgeColor);
+            badgeBg.invalidateSelf();
+        }
+        if (shadow == SHADOW.BAKED && getBackground() != null && colorChanged) {
+            // 烘焙背景按颜色共享，换色需要取另一张
+            applyBackground();
+        }
+        applyLayoutParams();
+    }
+
+    /**
+     * 重新绑定标签的内容、位置和字体大小，用于复用视图显示大小不一的标签
+     * @param message    文字内容
+     * @param badgeColor 背景颜色
+     * @param textSize   字体大小：sp单位
+     * @param marginH    水平边距像素值
+     * @param marginV    垂直边距像素值
+     */
+    public void rebind(String message, @ColorInt int badgeColor, float textSize, int marginH,
+                       int marginV) {
+        rebind(message, badgeColor, textColor, textSize, marginH, marginV);
+    }
+
+    /**
+     * 重新绑定标签的内容、颜色、位置和字体大小，用于复用视图显示不同配色的标签
+     * @param message    文字内容
+     * @param badgeColor 背景颜色
+     * @param textColor  文字颜色
+     * @param textSize   字体大小：sp单位
+     * @param marginH    水平边距像素值
+     * @param marginV    垂直边距像素值
+     */
+    public void rebind(String message, @ColorInt int badgeColor, @ColorInt int textColor,
+                       float textSize, int marginH, int marginV) {
+        if (this.textColor != textColor) {
+            this.textColor = textColor;
+            setTextColor(textColor);
+        }
+        if (badgeSize != textSize) {
+            badgeSize = textSize;
+            setTextSize(TypedValue.COMPLEX_UNIT_PX, dimensions.sp(textSize));
+        }
+        rebind(message, badgeColor, marginH, marginV);
+    }
+
+    /**
+     * 设置自适应字体大小：在不超过给定宽高的前提下使用最大的字体，长文字自动缩小，短文字自动放大
+     * @param maxWidth  最大宽度像素值，包含左右内距；0 表示关闭
+     * @param maxHeight 最大高度像素值，包含上下内距
+     */
+    public void setAutoFit(int maxWidth, int maxHeight) {
+        boolean enabled = maxWidth > 0 && maxHeight > 0;
+        this.fitWidth = enabled ? maxWidth : 0;
+        this.fitHeight = enabled ? maxHeight : 0;
+        if (enabled) {
+            applyAutoFit();
+        } else {
+            setTextSize(TypedValue.COMPLEX_UNIT_PX, dimensions.sp(badgeSize));
+        }
+    }
+
+    public boolean isAutoFit() {
+        return fitWidth > 0;
+    }
+
+    /**
+     * 按当前字体和自适应范围计算文字的字体大小，不改变当前标签
+     * @param text 文字
+     * @return 字体大小像素值；未开启自适应时返回当前字体大小
+     */
+    public float getFittedTextSize(CharSequence text) {
+        if (!isAutoFit()) {
+            return getTextSize();
+        }
+        int minSize = (int) dimensions.sp(MIN_FIT_TEXT_SIZE);
+        int maxWidth = fitWidth - getPaddingLeft() - getPaddingRight();
+        int maxHeight = fitHeight - getPaddingTop() - getPaddingBottom();
+        // 字体大小不会超过行高，以可用高度作为上限
+        return TextFitter.fit(getTypeface(), text, maxWidth, maxHeight, minSize, maxHeight);
+    }
+
+    /**
+     * 应用自适应字体大小
+     */
+    private void applyAutoFit() {
+        if (!isAutoFit()) {
+            return;
+        }
+        float size = getFittedTextSize(getText());
+        if (size != getTextSize()) {
+            setTextSize(TypedValue.COMPLEX_UNIT_PX, size);
+        }
+    }
+
+    /**
+     * 按构造器重新绑定内容和位置，用于复用样式一致的角标
+     * @param builder 构造器
+     */
+    void rebind(Builder builder) {
+        if (builder.isUseDip) {
+            rebind(builder.message, builder.badgeColor, builder.textColor, builder.badgeSize,
+                   dipToPixels(builder.badgeMarginH), dipToPixels(builder.badgeMarginV));
+        } else {
+            rebind(builder.message, builder.badgeColor, builder.textColor, builder.badgeSize,
+                   builder.badgeMarginH, builder.badgeMarginV);
+        }
+    }
+
+    /**
+     * 设置阴影方式，标签数量很多时使用{@link SHADOW#BAKED}或{@link SHADOW#NONE}可以减少阴影计算和过度绘制
+     * @param shadow 阴影方式
+     */
+    public void setShadow(SHADOW shadow) {
+        if (this.shadow == shadow) {
+            return;
+        }
+        this.shadow = shadow;
+        applyShadow();
+        if (getBackground() != null) {
+            applyBackground();
+        }
+    }
+
+    public SHADOW getShadow() {
+        return shadow;
+    }
+
+    /**
+     * 应用阴影方式：只有{@link SHADOW#ELEVATION}使用elevation
+     */
+    private void applyShadow() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            setTranslationZ(shadow == SHADOW.ELEVATION ? dipToPixels(DEFAULT_SHADOW_DIP) : 0);
+        }
+    }
+
+    /**
+     * 根据阴影方式设置背景
+     */
+    private void applyBackground() {
+        Drawable background;
+        if (shadow == SHADOW.BAKED) {
+            // 同色标签共享烘焙位图
+            background = ShadowBackground.obtain(badgeColor, dipToPixels(DEFAULT_CORNER_RADIUS_DIP),
+                                                 dipToPixels(DEFAULT_SHADOW_DIP));
+        } else {
+            // 没有自定义背景
+            if (badgeBg == null) {
+                // 使用默认背景
+                badgeBg = getDefaultBackground();
+            }
+            background = badgeBg;
+        }
+        // 根据SDK版本采用方法
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            //noinspection deprecation
+            setBackgroundDrawable(background);
+        } else {
+            setBackground(background);
+        }
+    }
+
     /**
      * 增加一个数字角标，如果当前显示的文字无法转换为Integer类型，则将当前文字设为——0
      * @param offset 数字增量
@@ -484,7 +691,53 @@ public class LabelView extends TextView {
      * @return 目标视图
      */
     public View getTargetView() {
-        return targetView;
+        return targetView.get();
+    }
+
+    /**
+     * 贴到新的目标视图上，用于复用已从原目标上移除的角标
+     * @param target 目标视图
+     */
+    void attachTo(View target) {
+        detach();
+        if (target instanceof TabWidget) {
+            target = ((TabWidget) target).getChildTabViewAt(targetTabIndex);
+        }
+        targetView = new WeakReference<>(target);
+        applyTo(target);
+    }
+
+    /**
+     * 从目标视图上移除，不再引用目标视图
+     */
+    void detach() {
+        clearAnimation();
+        setVisibility(View.GONE);
+        isShown = false;
+        ViewParent parent = getParent();
+        if (parent instanceof ViewGroup) {
+            ((ViewGroup) parent).removeView(this);
+        }
+        if (!isInEditMode()) {
+            LabelRegistry.get(getContext()).unregister(this);
+        }
+        targetView.clear();
+    }
+
+    /**
+     * 样式是否与构造器一致，一致时可以复用当前角标；文字、颜色、字体大小和边距在复用时重新绑定，不需要一致
+     * @param builder 构造器
+     * @return true 表示一致
+     */
+    boolean matches(Builder builder) {
+        return getContext() == builder.context
+                && badgePosition == builder.badgePosition
+                && targetTabIndex == builder.targetTabIndex
+                && isUseBold == builder.isUseBold
+                && isUseDip == builder.isUseDip
+                && shadow == builder.shadow
+                && fitWidth == (isUseDip ? dipToPixels(builder.fitWidth) : builder.fitWidth)
+                && fitHeight == (isUseDip ? dipToPixels(builder.fitHeight) : builder.fitHeight);
     }
 
     /**
@@ -533,10 +786,7 @@ public class LabelView extends TextView {
      * @return 从数值转换为dip单位的值
      */
     public int dipToPixels(int dip) {
-        Resources r = getResources();
-        float px = TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, dip, r
-                .getDisplayMetrics());
-        return (int) px;
+        return dimensions.dip(dip);
     }
 
     /**
@@ -566,6 +816,8 @@ public class LabelView extends TextView {
     public static final class Builder {
         Animation fadeIn;
         Animation fadeOut;
+        boolean customFadeIn;
+        boolean customFadeOut;
         Context context;
         View targetView;
         POSITION badgePosition;
@@ -577,14 +829,20 @@ public class LabelView extends TextView {
         int targetTabIndex;
         boolean isUseBold;
         boolean isUseDip;
+        SHADOW shadow;
+        int fitWidth;
+        int fitHeight;
         private String message;
         private int textColor;
 
         Builder(LabelView labelView) {
-            this.fadeIn = labelView.fadeIn;
-            this.fadeOut = labelView.fadeOut;
-            this.context = labelView.context;
-            this.targetView = labelView.targetView;
+            // Animation保存播放状态，不能在多个标签之间共享：默认动画重新生成，调用方指定的动画沿用
+            this.customFadeIn = labelView.customFadeIn;
+            this.customFadeOut = labelView.customFadeOut;
+            this.fadeIn = customFadeIn ? labelView.fadeIn : defaultFadeIn();
+            this.fadeOut = customFadeOut ? labelView.fadeOut : defaultFadeOut();
+            this.context = labelView.getContext();
+            this.targetView = labelView.getTargetView();
             this.badgePosition = labelView.badgePosition;
             this.badgeMarginH = labelView.badgeMarginH;
             this.badgeMarginV = labelView.badgeMarginV;
@@ -594,6 +852,9 @@ public class LabelView extends TextView {
             this.isShown = labelView.isShown;
             this.isUseBold = labelView.isUseBold;
             this.isUseDip = labelView.isUseDip;
+            this.shadow = labelView.shadow;
+            this.fitWidth = labelView.fitWidth;
+            this.fitHeight = labelView.fitHeight;
             this.message = labelView.getText().toString();
             this.textColor = labelView.getTextColors().getDefaultColor();
         }
@@ -604,12 +865,8 @@ public class LabelView extends TextView {
 
         public Builder(Context context, int tabIndex) {
             this.context = context;
-            fadeIn = new AlphaAnimation(0, 1);
-            fadeIn.setInterpolator(new DecelerateInterpolator());
-            fadeIn.setDuration(300);
-            fadeOut = new AlphaAnimation(1, 0);
-            fadeOut.setInterpolator(new AccelerateInterpolator());
-            fadeOut.setDuration(300);
+            fadeIn = defaultFadeIn();
+            fadeOut = defaultFadeOut();
             badgePosition = DEFAULT_POSITION;
             badgeMarginH = DEFAULT_MARGIN_DIP;
             badgeMarginV = badgeMarginH;
@@ -619,6 +876,7 @@ public class LabelView extends TextView {
             isShown = false;
             isUseBold = false;
             isUseDip = true;
+            shadow = DEFAULT_SHADOW;
             message = "";
             textColor = LabelView.DEFAULT_TEXT_COLOR;
         }
@@ -635,14 +893,30 @@ public class LabelView extends TextView {
 
         public Builder animationFadeIn(Animation fadeIn) {
             this.fadeIn = fadeIn;
+            this.customFadeIn = true;
             return this;
         }
 
         public Builder animationFadeOut(Animation fadeOut) {
             this.fadeOut = fadeOut;
+            this.customFadeOut = true;
             return this;
         }
 
+        private static Animation defaultFadeIn() {
+            Animation fadeIn = new AlphaAnimation(0, 1);
+            fadeIn.setInterpolator(new DecelerateInterpolator());
+            fadeIn.setDuration(300);
+            return fadeIn;
+        }
+
+        private static Animation defaultFadeOut() {
+            Animation fadeOut = new AlphaAnimation(1, 0);
+            fadeOut.setInterpolator(new AccelerateInterpolator());
+            fadeOut.setDuration(300);
+            return fadeOut;
+        }
+
         public Builder position(POSITION badgePosition) {
             this.badgePosition = badgePosition;
             return this;
@@ -675,6 +949,17 @@ public class LabelView extends TextView {
             return this;
         }
 
+        /**
+         * 自适应字体大小，在不超过给定宽高的前提下使用最大的字体
+         * @param maxWidth  最大宽度，包含左右内距；0 表示关闭
+         * @param maxHeight 最大高度，包含上下内距
+         */
+        public Builder autoFit(int maxWidth, int maxHeight) {
+            this.fitWidth = maxWidth;
+            this.fitHeight = maxHeight;
+            return this;
+        }
+
         public Builder textColor(@ColorInt int textColor) {
             this.textColor = textColor;
             return this;
@@ -695,6 +980,11 @@ public class LabelView extends TextView {
             return this;
         }
 
+        public Builder shadow(SHADOW shadow) {
+            this.shadow = shadow;
+            return this;
+        }
+
         public LabelView build() {
             if (targetView == null) {
                 throw new NullPointerException("targetView is null");
@@ -0,0 +1,131 @@
+package cn.qiang.zhang.library;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.ColorFilter;
+import android.graphics.Paint;
+import android.graphics.PixelFormat;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.drawable.Drawable;
+import android.support.annotation.ColorInt;
+import android.support.v4.util.LongSparseArray;
+
+/**
+ * 烘焙阴影的标签背景
+ * <p>
+ * 把圆角矩形和柔和阴影预先画进一张很小的位图，绘制时像点九图一样只拉伸中间的一行一列像素。
+ * 位图按颜色缓存并在所有同色标签之间共享，标签本身不再需要elevation阴影和RenderNode轮廓计算。
+ */
+final class ShadowBackground extends Drawable {
+    /** 阴影颜色 */
+    private static final int SHADOW_COLOR = 0x40000000;
+    /** 最多缓存的位图数量，超过后整体清空，已经在使用的位图仍由各自的背景持有 */
+    private static final int CACHE_SIZE = 64;
+
+    /** (颜色, 圆角, 阴影) → 烘焙好的位图，键为基本类型，查找时不分配对象 */
+    private static final LongSparseArray<Bitmap> CACHE = new LongSparseArray<>();
+
+    private final Bitmap bitmap;
+    /** 位图四周不可拉伸的边长 */
+    private final int edge;
+    private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Rect src = new Rect();
+    private final Rect dst = new Rect();
+    /** 位图上的九宫格分割线 */
+    private final int[] srcStops;
+    /** 目标区域上的九宫格分割线，绘制时复用 */
+    private final int[] dstX = new int[4];
+    private final int[] dstY = new int[4];
+
+    /**
+     * 获取烘焙阴影的背景，同样参数的背景共享同一张位图
+     * @param color  背景颜色
+     * @param corner 圆角半径像素值
+     * @param shadow 阴影半径像素值
+     */
+    static ShadowBackground obtain(@ColorInt int color, int corner, int shadow) {
+        long key = ((long) color << 32) | ((corner & 0xFFFFL) << 16) | (shadow & 0xFFFFL);
+        Bitmap bitmap = CACHE.get(key);
+        if (bitmap == null) {
+            LabelMetrics.shadowMisses++;
+            bitmap = bake(color, corner, shadow);
+            if (CACHE.size() >= CACHE_SIZE) {
+                CACHE.clear();
+            }
+            CACHE.put(key, bitmap);
+        } else {
+            LabelMetrics.shadowHits++;
+        }
+        return new ShadowBackground(bitmap, corner + shadow);
+    }
+
+    private static Bitmap bake(int color, int corner, int shadow) {
+        int edge = corner + shadow;
+        int size = edge * 2 + 1;
+        Bitmap bitmap = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        paint.setColor(color);
+        // 位图画布使用软件绘制，阴影层在所有版本上都可用
+        paint.setShadowLayer(shadow / 2f, 0, shadow / 2f, SHADOW_COLOR);
+        RectF rect = new RectF(shadow, shadow / 2f, size - shadow, size - shadow * 1.5f);
+        canvas.drawRoundRect(rect, corner, corner, paint);
+        return bitmap;
+    }
+
+    private ShadowBackground(Bitmap bitmap, int edge) {
+        this.bitmap = bitmap;
+        this.edge = edge;
+        this.srcStops = new int[]{0, edge, edge + 1, bitmap.getWidth()};
+    }
+
+    @Override
+    public void draw(Canvas canvas) {
+        Rect bounds = getBounds();
+        int w = bounds.width();
+        int h = bounds.height();
+        if (w <= 0 || h <= 0) {
+            return;
+        }
+        // 目标区域比四角还小时，压缩四角
+        int ex = Math.min(edge, w / 2);
+        int ey = Math.min(edge, h / 2);
+        dstX[0] = bounds.left;
+        dstX[1] = bounds.left + ex;
+        dstX[2] = bounds.right - ex;
+        dstX[3] = bounds.right;
+        dstY[0] = bounds.top;
+        dstY[1] = bounds.top + ey;
+        dstY[2] = bounds.bottom - ey;
+        dstY[3] = bounds.bottom;
+        for (int row = 0; row < 3; row++) {
+            for (int col = 0; col < 3; col++) {
+                if (dstX[col] >= dstX[col + 1] || dstY[row] >= dstY[row + 1]) {
+                    continue;
+                }
+                src.set(srcStops[col], srcStops[row], srcStops[col + 1], srcStops[row + 1]);
+                dst.set(dstX[col], dstY[row], dstX[col + 1], dstY[row + 1]);
+                canvas.drawBitmap(bitmap, src, dst, paint);
+            }
+        }
+    }
+
+    @Override
+    public void setAlpha(int alpha) {
+        paint.setAlpha(alpha);
+        invalidateSelf();
+    }
+
+    @Override
+    public void setColorFilter(ColorFilter colorFilter) {
+        paint.setColorFilter(colorFilter);
+        invalidateSelf();
+    }
+
+    @Override
+    public int getOpacity() {
+        return PixelFormat.TRANSLUCENT;
+    }
+
+}
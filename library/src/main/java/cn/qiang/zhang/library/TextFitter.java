@@ -0,0 +1,71 @@
+package cn.qiang.zhang.library;
+
+import android.graphics.Paint;
+import android.graphics.Typeface;
+import android.text.TextPaint;
+import android.util.LruCache;
+
+/**
+ * 自适应字体大小
+ * <p>
+ * 在给定的宽高内二分查找能放下文字的最大字体大小，结果按(文字, 字体, 宽高)缓存，
+ * 重复的文字以及从对象池复用的标签不需要再次测量。
+ */
+final class TextFitter {
+    /** 最多缓存的结果数量 */
+    private static final int CACHE_SIZE = 512;
+
+    /** (文字, 字体, 宽高, 大小范围) → 字体大小像素值 */
+    private static final LruCache<String, Float> CACHE = new LruCache<>(CACHE_SIZE);
+    /** 测量用的画笔，只在同步方法中使用 */
+    private static final TextPaint PAINT = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+    private static final Paint.FontMetricsInt METRICS = new Paint.FontMetricsInt();
+
+    private TextFitter() {
+    }
+
+    /**
+     * 找到能放进给定范围的最大字体大小，最小字体也放不下时返回最小字体
+     * @param typeface  字体
+     * @param text      文字
+     * @param maxWidth  文字可用的宽度像素值
+     * @param maxHeight 文字可用的高度像素值
+     * @param minSize   最小字体大小像素值
+     * @param maxSize   最大字体大小像素值
+     * @return 字体大小像素值
+     */
+    static synchronized float fit(Typeface typeface, CharSequence text, int maxWidth,
+                                  int maxHeight, int minSize, int maxSize) {
+        String key = text + "\u0000" + System.identityHashCode(typeface) + ":" + maxWidth + ":"
+                + maxHeight + ":" + minSize + ":" + maxSize;
+        Float cached = CACHE.get(key);
+        if (cached != null) {
+            LabelMetrics.fitHits++;
+            return cached;
+        }
+        LabelMetrics.fitMisses++;
+        PAINT.setTypeface(typeface);
+        // 按整数像素二分，最多log2(maxSize - minSize)次测量
+        int low = minSize;
+        int high = Math.max(minSize, maxSize);
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (fits(text, mid, maxWidth, maxHeight)) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        float size = low;
+        CACHE.put(key, size);
+        return size;
+    }
+
+    private static boolean fits(CharSequence text, int size, int maxWidth, int maxHeight) {
+        PAINT.setTextSize(size);
+        PAINT.getFontMetricsInt(METRICS);
+        return METRICS.bottom - METRICS.top <= maxHeight
+                && PAINT.measureText(text, 0, text.length()) <= maxWidth;
+    }
+
+}